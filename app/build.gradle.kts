@@ -29,6 +29,14 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // android.util.Log is a no-op in local unit tests
+        unitTests.isReturnDefaultValues = true
+        // ./gradlew testDebugUnitTest -Pbenchmark --tests "*MeasurementBenchmark"
+        unitTests.all {
+            it.systemProperty("speedtest.benchmark", project.hasProperty("benchmark"))
+        }
+    }
 }
 
 dependencies {
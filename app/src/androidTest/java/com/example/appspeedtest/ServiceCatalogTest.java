@@ -0,0 +1,39 @@
+package com.example.appspeedtest;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the live catalog on a device with network access: every service must resolve to a
+ * first object that gives a transfer rate, or "Scan all" ranks it on the fallback rate.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ServiceCatalogTest {
+    @Test
+    public void everyService_firstObjectGivesATransferRate() {
+        Context appContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        ServiceCatalog catalog = ServiceCatalog.fromResources(appContext);
+        SpeedTestManager manager = new SpeedTestManager();
+
+        for (String service : Utils.getServiceDomains().keySet()) {
+            List<String> objects = manager.resolveServiceObjects(catalog, service);
+            assertFalse(service + " resolved to no objects", objects.isEmpty());
+
+            ServiceProbeEngine.ServiceResult result =
+                    manager.testServiceCdn(service, Collections.singletonList(objects.get(0)));
+            assertEquals(service + " first object failed: " + objects.get(0), 1, result.succeeded);
+            assertTrue(service + " first object " + objects.get(0) + " gave no transfer rate",
+                    result.transferMbps > 0);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive stop rule for the throughput phases.
+ * Ends a phase early once the stable-phase throughput has converged, i.e. the
+ * 95% confidence interval of the mean is within relativeBound of the mean.
+ * The phase always runs for at least minDurationMs; the phase duration itself
+ * is the upper limit.
+ */
+public class AdaptiveStopRule {
+
+    private static final String TAG = "AdaptiveStopRule";
+
+    public static final long DEFAULT_MIN_DURATION_MS = 3000;
+    public static final double DEFAULT_RELATIVE_BOUND = 0.05;
+
+    private static final long CHECK_INTERVAL_MS = 250;
+
+    private final long minDurationMs;
+    private final double relativeBound;
+
+    public AdaptiveStopRule() {
+        this(DEFAULT_MIN_DURATION_MS, DEFAULT_RELATIVE_BOUND);
+    }
+
+    /**
+     * @param relativeBound allowed CI half-width as a fraction of the mean, e.g. 0.05 for +/-5%
+     */
+    public AdaptiveStopRule(long minDurationMs, double relativeBound) {
+        this.minDurationMs = minDurationMs;
+        this.relativeBound = relativeBound;
+    }
+
+    public long getMinDurationMs() {
+        return minDurationMs;
+    }
+
+    public double getRelativeBound() {
+        return relativeBound;
+    }
+
+    public boolean hasConverged(ThroughputEstimator.Estimate estimate, long elapsedMs) {
+        if (elapsedMs < minDurationMs || estimate.stableMs <= 0 || estimate.meanMbps <= 0) {
+            return false;
+        }
+        return estimate.ciHalfWidthMbps <= estimate.meanMbps * relativeBound;
+    }
+
+    /**
+     * Checks the estimator a few times per second and pulls the deadline in once
+     * the throughput has converged. Call stop() on the returned watch when the phase ends.
+     */
+    public Watch watch(ThroughputEstimator estimator, MeasurementCore.Deadline deadline, long startNanos) {
+        Watch watch = new Watch();
+        watch.scheduler.scheduleAtFixedRate(() -> {
+            long now = MeasurementCore.nanoTime();
+            long elapsedMs = (now - startNanos) / 1_000_000;
+            ThroughputEstimator.Estimate estimate = estimator.estimate();
+            if (hasConverged(estimate, elapsedMs)) {
+                Log.d(TAG, "Converged after " + elapsedMs + " ms: " + estimate.meanMbps + " +/- "
+                        + estimate.ciHalfWidthMbps + " Mbps");
+                deadline.stopAt(now);
+                watch.stop();
+            }
+        }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return watch;
+    }
+
+    /**
+     * Milliseconds cut from the phase by pulling the deadline in (0 if it ran to the end)
+     */
+    public static long savedMs(MeasurementCore.Deadline deadline) {
+        return (deadline.initialNanos() - deadline.nanos()) / 1_000_000;
+    }
+
+    /**
+     * Bytes that would have been transferred in the saved time at the measured rate
+     */
+    public static long savedBytes(double speedMbps, long savedMs) {
+        return (long) (speedMbps * 1_000_000 / 8 * savedMs / 1000);
+    }
+
+    /**
+     * A running convergence check
+     */
+    public static class Watch {
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        public void stop() {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.appspeedtest;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.util.Log;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One batched background wake-up: a short latency sample against the reference
+ * server plus a scan of all services, saved to the same history as foreground
+ * tests. Skipped when the network has not changed since a recent run, when the
+ * battery is low and not charging, or when the daily byte budget is used up.
+ */
+public class BackgroundProbeJob extends JobService {
+
+    private static final String TAG = "BackgroundProbeJob";
+
+    public static final long DAILY_BYTE_BUDGET = 20 * 1024 * 1024;
+    private static final long RUN_BYTE_BUDGET = 3 * 1024 * 1024;
+    // Below this a scan burst is too short to say anything
+    private static final long MIN_RUN_BYTES = 256 * 1024;
+    // Rough cost of one HEAD probe on a fresh connection (TCP + TLS handshake + headers)
+    private static final long PROBE_OVERHEAD_BYTES = 6 * 1024;
+
+    private static final int LATENCY_PROBES = 5;
+    private static final long LATENCY_INTERVAL_MS = 200;
+
+    // A result on the same network newer than this is recent enough
+    private static final long SAME_NETWORK_INTERVAL_MS = 6 * 60 * 60 * 1000;
+    private static final int MIN_BATTERY_PERCENT = 30;
+
+    private static final String KEY_LAST_NETWORK = "last_network";
+    private static final String KEY_LAST_RUN = "last_run";
+    private static final String KEY_BUDGET_DAY = "budget_day";
+    private static final String KEY_BYTES_USED = "bytes_used";
+
+    private volatile SpeedTestManager manager;
+    private volatile Thread worker;
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        worker = new Thread(() -> {
+            try {
+                runProbes();
+            } catch (Exception e) {
+                Log.e(TAG, "Background probes failed: " + e.getMessage());
+                e.printStackTrace();
+            }
+            jobFinished(params, false);
+        }, TAG);
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // Constraints no longer met (e.g. network lost) - abort and wait for the next period
+        SpeedTestManager current = manager;
+        if (current != null) {
+            current.cancel();
+        }
+        if (worker != null) {
+            worker.interrupt();
+        }
+        return false;
+    }
+
+    private void runProbes() {
+        SharedPreferences prefs = BackgroundProbeScheduler.prefs(this);
+        String networkKey = Utils.getNetworkKey(this);
+        long now = System.currentTimeMillis();
+
+        if (networkKey.equals(prefs.getString(KEY_LAST_NETWORK, null))
+                && now - prefs.getLong(KEY_LAST_RUN, 0) < SAME_NETWORK_INTERVAL_MS) {
+            Log.d(TAG, "Skipping - network unchanged since the last run");
+            return;
+        }
+        if (!hasBatteryToSpare()) {
+            Log.d(TAG, "Skipping - battery low and not charging");
+            return;
+        }
+        long remaining = DAILY_BYTE_BUDGET - bytesUsedToday(prefs);
+        if (remaining < MIN_RUN_BYTES) {
+            Log.d(TAG, "Skipping - daily byte budget used up");
+            return;
+        }
+
+        manager = new SpeedTestManager();
+        ResultHistory history = ResultHistory.getInstance(this);
+        String networkType = Utils.getNetworkType(this);
+        String isp = Utils.getISPName(this);
+        long used = 0;
+
+        // General latency baseline
+        SpeedTestManager.LatencyResult latency = manager.testLatency(
+                TestServer.CLOUDFLARE.getProbeTarget(), LATENCY_PROBES, LATENCY_INTERVAL_MS);
+        used += LATENCY_PROBES * PROBE_OVERHEAD_BYTES;
+        ResultHistory.Run baseline = newRun(now, networkType, isp, ResultHistory.SERVICE_GENERAL);
+        baseline.server = TestServer.CLOUDFLARE.getName();
+        baseline.pingMs = latency.average;
+        baseline.jitterMs = latency.jitter;
+        history.save(baseline);
+
+        // Every service in one batch, bursting within what is left of the budget
+        Map<String, String> domains = Utils.getServiceDomains();
+        ServiceCatalog catalog = ServiceCatalog.fromResources(this);
+        Map<String, String> burstUrls = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry
+                : manager.resolveServiceObjects(catalog, domains.keySet()).entrySet()) {
+            burstUrls.put(entry.getKey(), entry.getValue().get(0));
+        }
+        // Catalog pages are read to find the objects; count each at its cap
+        for (String service : domains.keySet()) {
+            used += catalog.getPages(service).size() * SpeedTestManager.MAX_PAGE_BYTES;
+        }
+        long scanBudget = Math.min(RUN_BYTE_BUDGET, remaining - used);
+        if (scanBudget >= MIN_RUN_BYTES && !manager.isCancelled()) {
+            for (BatchScanner.ServiceScan scan : manager.scanServices(domains, burstUrls, scanBudget)) {
+                used += scan.burstBytes + PROBE_OVERHEAD_BYTES * 4;
+                ResultHistory.Run run = newRun(now, networkType, isp, scan.service);
+                run.pingMs = scan.latencyMs;
+                // A short, budget-capped scan burst, kept apart from full download figures
+                run.burstMbps = scan.burstMbps;
+                history.save(run);
+            }
+        }
+
+        recordRun(prefs, networkKey, now, used);
+        Log.d(TAG, "Background probes done, used " + used + " bytes");
+    }
+
+    private static ResultHistory.Run newRun(long timestamp, String networkType, String isp, String service) {
+        ResultHistory.Run run = new ResultHistory.Run();
+        run.timestamp = timestamp;
+        run.networkType = networkType;
+        run.isp = isp;
+        run.service = service;
+        run.testType = "background";
+        return run;
+    }
+
+    private boolean hasBatteryToSpare() {
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery == null) {
+            return true;
+        }
+        boolean charging = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+        return charging || level < 0 || level * 100 / scale >= MIN_BATTERY_PERCENT;
+    }
+
+    private static String today() {
+        return new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
+    }
+
+    private static long bytesUsedToday(SharedPreferences prefs) {
+        return today().equals(prefs.getString(KEY_BUDGET_DAY, null)) ? prefs.getLong(KEY_BYTES_USED, 0) : 0;
+    }
+
+    private static void recordRun(SharedPreferences prefs, String networkKey, long now, long bytes) {
+        prefs.edit()
+                .putString(KEY_LAST_NETWORK, networkKey)
+                .putLong(KEY_LAST_RUN, now)
+                .putString(KEY_BUDGET_DAY, today())
+                .putLong(KEY_BYTES_USED, bytesUsedToday(prefs) + bytes)
+                .apply();
+    }
+}
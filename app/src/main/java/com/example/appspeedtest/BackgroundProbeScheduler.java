@@ -0,0 +1,68 @@
+package com.example.appspeedtest;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Schedules the periodic background probes (BackgroundProbeJob) with JobScheduler.
+ * The job only runs on a network, when the battery is not low and optionally
+ * only while charging; the job itself enforces the daily byte budget.
+ */
+public class BackgroundProbeScheduler {
+
+    private static final String TAG = "BackgroundProbeScheduler";
+
+    static final String PREFS_NAME = "background_probes";
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_REQUIRE_CHARGING = "require_charging";
+
+    private static final int JOB_ID = 1001;
+
+    // One batched wake-up every two hours, placed anywhere in the last half hour of the window
+    public static final long INTERVAL_MS = 2 * 60 * 60 * 1000;
+    private static final long FLEX_MS = 30 * 60 * 1000;
+
+    public static boolean isEnabled(Context context) {
+        return prefs(context).getBoolean(KEY_ENABLED, false);
+    }
+
+    /**
+     * Starts periodic probing; requireCharging limits it to while the device is charging
+     */
+    public static void enable(Context context, boolean requireCharging) {
+        prefs(context).edit()
+                .putBoolean(KEY_ENABLED, true)
+                .putBoolean(KEY_REQUIRE_CHARGING, requireCharging)
+                .apply();
+
+        JobInfo.Builder builder = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, BackgroundProbeJob.class))
+                .setPeriodic(INTERVAL_MS, FLEX_MS)
+                .setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY)
+                .setRequiresCharging(requireCharging)
+                .setPersisted(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setRequiresBatteryNotLow(true);
+        }
+
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        int outcome = scheduler.schedule(builder.build());
+        Log.d(TAG, "Background probes scheduled: " + (outcome == JobScheduler.RESULT_SUCCESS));
+    }
+
+    public static void disable(Context context) {
+        prefs(context).edit().putBoolean(KEY_ENABLED, false).apply();
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        scheduler.cancel(JOB_ID);
+        Log.d(TAG, "Background probes cancelled");
+    }
+
+    static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
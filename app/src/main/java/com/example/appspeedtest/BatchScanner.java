@@ -0,0 +1,275 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * "Scan all" batch mode.
+ * Runs a few latency probes and one short throughput burst against every
+ * service at once, on a bounded pool with a per-host concurrency limit, and
+ * ranks the services in a few seconds. Work over a host's limit waits in that
+ * host's queue rather than on a pool thread, so a busy host never holds up the
+ * others. All bursts draw from one shared byte
+ * budget, so the whole scan never downloads more than the budget.
+ */
+public class BatchScanner {
+
+    private static final String TAG = "BatchScanner";
+
+    public static final long DEFAULT_BYTE_BUDGET = 5 * 1024 * 1024;
+    public static final long SCAN_DEADLINE_MS = 6000;
+
+    private static final int POOL_SIZE = 6;
+    private static final int PER_HOST_LIMIT = 2;
+    private static final int PROBES_PER_SERVICE = 3;
+    private static final long BURST_MS = 1500;
+
+    // Ranking assumes a typical object of this size fetched on a new connection,
+    // at FALLBACK_MBPS when the burst gave no usable rate
+    private static final long RANKING_OBJECT_BYTES = 500 * 1024;
+    private static final double FALLBACK_MBPS = 1;
+
+    private final LatencyProbe probe;
+    private final ServiceProbeEngine.ObjectOpener opener;
+    private final MeasurementCore core;
+    private final long byteBudget;
+
+    public BatchScanner(LatencyProbe probe, ServiceProbeEngine.ObjectOpener opener, MeasurementCore core,
+                        long byteBudget) {
+        this.probe = probe;
+        this.opener = opener;
+        this.core = core;
+        this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Scans every service and returns them best first.
+     * burstUrls maps a service to the object used for its burst (its domain root if missing).
+     */
+    public List<ServiceScan> scan(Map<String, String> serviceDomains, Map<String, String> burstUrls) {
+        ExecutorService executor = Executors.newFixedThreadPool(POOL_SIZE);
+        AtomicLong budget = new AtomicLong(byteBudget);
+        long perServiceBytes = byteBudget / Math.max(1, serviceDomains.size());
+        Map<String, ServiceScan> scans = new LinkedHashMap<>();
+        Map<String, HostQueue> hostQueues = new ConcurrentHashMap<>();
+
+        Log.d(TAG, "Scanning " + serviceDomains.size() + " services with a " + byteBudget + " byte budget");
+
+        for (Map.Entry<String, String> entry : serviceDomains.entrySet()) {
+            scans.put(entry.getKey(), new ServiceScan(entry.getKey(), entry.getValue()));
+        }
+        // Round by round across the services, so each gets its first latency
+        // probe before any gets its last or its burst
+        for (int i = 0; i < PROBES_PER_SERVICE; i++) {
+            final int index = i;
+            for (ServiceScan scan : scans.values()) {
+                submit(executor, hostQueues, LatencyProbe.toHost(scan.domain), () -> runProbe(scan, index));
+            }
+        }
+        for (ServiceScan scan : scans.values()) {
+            String burstUrl = burstUrls.get(scan.service);
+            String url = burstUrl != null ? burstUrl : "https://" + LatencyProbe.toHost(scan.domain) + "/";
+            submit(executor, hostQueues, LatencyProbe.toHost(url), () -> runBurst(scan, url, budget, perServiceBytes));
+        }
+
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SCAN_DEADLINE_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Scan deadline reached, abandoning the remaining probes");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<ServiceScan> ranked = new ArrayList<>();
+        for (ServiceScan scan : scans.values()) {
+            synchronized (scan) {
+                scan.finish();
+                ranked.add(scan);
+            }
+        }
+        Collections.sort(ranked, (a, b) -> Double.compare(a.scoreMs, b.scoreMs));
+
+        Log.d(TAG, "Scan used " + (byteBudget - budget.get()) + " bytes");
+        return ranked;
+    }
+
+    private void runProbe(ServiceScan scan, int index) {
+        LatencyProbe.Timing timing = probe.probe(LatencyProbe.toHost(scan.domain));
+        synchronized (scan) {
+            scan.rtts[index] = timing.success ? timing.rttMs() : -1;
+        }
+    }
+
+    private void runBurst(ServiceScan scan, String url, AtomicLong budget, long maxBytes) {
+        MeasurementCore.Span span = new MeasurementCore.Span();
+        try {
+            InputStream inputStream = new BudgetedInputStream(
+                    opener.open(url, new LatencyProbe.Timing()), budget, maxBytes);
+            try {
+                long deadlineNanos = MeasurementCore.nanoTime() + BURST_MS * 1_000_000;
+                core.read(inputStream, new MeasurementCore.Deadline(deadlineNanos),
+                        new ThroughputEstimator(ThroughputEstimator.DEFAULT_BUCKET_MS, BURST_MS), span);
+            } finally {
+                inputStream.close();
+            }
+            synchronized (scan) {
+                scan.burstBytes = span.bytes;
+                if (span.bytes >= ServiceProbeEngine.MIN_TRANSFER_BYTES) {
+                    scan.burstMbps = MeasurementCore.toMbps(span.bytes, span.durationMs());
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Burst to " + url + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs the task on the pool if the host is under its limit, otherwise queues it
+     * for the host. A pool thread that finishes a host's task runs the next one
+     * queued for that host, so no thread ever waits for a host to free up.
+     */
+    private void submit(ExecutorService executor, Map<String, HostQueue> hostQueues, String host,
+                        Runnable task) {
+        HostQueue queue = hostQueues.get(host);
+        if (queue == null) {
+            hostQueues.putIfAbsent(host, new HostQueue());
+            queue = hostQueues.get(host);
+        }
+        synchronized (queue) {
+            if (queue.running >= PER_HOST_LIMIT) {
+                queue.waiting.add(task);
+                return;
+            }
+            queue.running++;
+        }
+        final HostQueue hostQueue = queue;
+        executor.execute(() -> drain(hostQueue, task));
+    }
+
+    private void drain(HostQueue queue, Runnable task) {
+        while (task != null && !Thread.currentThread().isInterrupted()) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Scan task failed: " + e.getMessage());
+            }
+            synchronized (queue) {
+                task = queue.waiting.poll();
+                if (task == null) {
+                    queue.running--;
+                }
+            }
+        }
+    }
+
+    /**
+     * Tasks running against one host, and those waiting for it
+     */
+    private static class HostQueue {
+        int running;
+        final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * Reports end of stream once the shared budget or this stream's own limit is used up.
+     * Bytes are reserved from the budget before each read and unused ones refunded,
+     * so concurrent streams can never overdraw it.
+     */
+    private static class BudgetedInputStream extends FilterInputStream {
+        private final AtomicLong budget;
+        private long remaining;
+
+        BudgetedInputStream(InputStream in, AtomicLong budget, long maxBytes) {
+            super(in);
+            this.budget = budget;
+            this.remaining = maxBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long wanted = Math.min(length, remaining);
+            long reserved = wanted > 0 ? reserve(wanted) : 0;
+            if (reserved == 0) {
+                return -1;
+            }
+            int read = 0;
+            try {
+                read = super.read(buffer, offset, (int) reserved);
+                return read;
+            } finally {
+                long used = Math.max(read, 0);
+                remaining -= used;
+                if (used < reserved) {
+                    budget.addAndGet(reserved - used);
+                }
+            }
+        }
+
+        private long reserve(long wanted) {
+            while (true) {
+                long available = budget.get();
+                long granted = Math.min(available, wanted);
+                if (granted <= 0 || budget.compareAndSet(available, available - granted)) {
+                    return Math.max(granted, 0);
+                }
+            }
+        }
+    }
+
+    /**
+     * Scan figures for one service (-1 for a value that was not measured)
+     */
+    public static class ServiceScan {
+        public final String service;
+        public final String domain;
+        public double latencyMs = -1;
+        public double lossRatio;
+        public double burstMbps = -1;
+        public long burstBytes;
+        // Estimated time to fetch a typical object on a new connection; lower ranks first
+        public double scoreMs = Double.POSITIVE_INFINITY;
+
+        final double[] rtts = new double[PROBES_PER_SERVICE];
+
+        ServiceScan(String service, String domain) {
+            this.service = service;
+            this.domain = domain;
+            Arrays.fill(rtts, -1);
+        }
+
+        void finish() {
+            LatencySampler.Stats stats = LatencySampler.Stats.compute(rtts);
+            latencyMs = stats.medianMs;
+            lossRatio = stats.lossRatio;
+            if (latencyMs < 0) return;
+
+            // Connect, TLS and request each take about one round trip
+            double mbps = burstMbps > 0 ? burstMbps : FALLBACK_MBPS;
+            scoreMs = 3 * latencyMs + RANKING_OBJECT_BYTES * 8 / (mbps * 1000);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport over the platform HttpURLConnection and its keep-alive cache
+ */
+public class HttpUrlConnectionTransport implements Transport {
+
+    private static final String TAG = "HttpUrlConnTransport";
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    private final CallTracker tracker;
+
+    public HttpUrlConnectionTransport(CallTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    @Override
+    public String getName() {
+        return "HttpURLConnection";
+    }
+
+    @Override
+    public boolean supports(String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    @Override
+    public int warmUp(String url, int connections) {
+        ExecutorService workers = Executors.newFixedThreadPool(connections);
+        CountDownLatch latch = new CountDownLatch(connections);
+        AtomicInteger warmed = new AtomicInteger();
+
+        Log.d(TAG, "Warming up " + connections + " connection(s) to: " + url);
+
+        for (int i = 0; i < connections; i++) {
+            workers.execute(() -> {
+                HttpURLConnection connection = null;
+                Closeable handle = null;
+                try {
+                    connection = open(url);
+                    handle = tracker.track(connection::disconnect);
+                    connection.setRequestMethod("HEAD");
+                    // Any status will do; a fully read response leaves the connection in the keep-alive cache
+                    int responseCode = connection.getResponseCode();
+                    InputStream body = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+                    if (body != null) {
+                        body.close();
+                    }
+                    warmed.incrementAndGet();
+                } catch (IOException e) {
+                    Log.e(TAG, "Warm-up failed: " + e.getMessage());
+                } finally {
+                    tracker.untrack(handle);
+                    latch.countDown();
+                }
+            });
+        }
+
+        try {
+            latch.await(WARM_UP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+        }
+        return warmed.get();
+    }
+
+    @Override
+    public InputStream openDownload(String url, long rangeBytes) throws IOException {
+        HttpURLConnection connection = open(url);
+        Closeable handle = tracker.track(connection::disconnect);
+        connection.setRequestProperty("Cache-Control", "no-cache");
+        if (rangeBytes > 0) {
+            connection.setRequestProperty("Range", "bytes=0-" + (rangeBytes - 1));
+        }
+
+        try {
+            connection.connect();
+
+            int responseCode = connection.getResponseCode();
+            Log.d(TAG, "Response code: " + responseCode);
+
+            if (responseCode != HttpURLConnection.HTTP_OK && responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP error code: " + responseCode);
+            }
+        } catch (IOException e) {
+            tracker.untrack(handle);
+            connection.disconnect();
+            throw e;
+        }
+
+        // A body read to the end leaves the socket in the keep-alive pool; only one abandoned
+        // mid-read is disconnected, since its unread bytes would have to be drained first
+        return new FilterInputStream(connection.getInputStream()) {
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                ended |= b == -1;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                ended |= read == -1;
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                tracker.untrack(handle);
+                try {
+                    super.close();
+                } finally {
+                    if (!ended) {
+                        connection.disconnect();
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public long upload(String url, StreamingUploadEngine engine) throws IOException {
+        HttpURLConnection connection = open(url);
+        Closeable handle = tracker.track(connection::disconnect);
+        try {
+            engine.setInFlight(handle);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setChunkedStreamingMode(0);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+
+            // Opening the stream connects, so setup is done before the engine starts its timer
+            OutputStream outputStream = connection.getOutputStream();
+            engine.writeBody(outputStream);
+            outputStream.close();
+
+            int responseCode = connection.getResponseCode();
+            long ackTime = MeasurementCore.nanoTime();
+            if (responseCode / 100 != 2) {
+                throw new IOException("Upload response code: " + responseCode);
+            }
+            return ackTime;
+        } finally {
+            tracker.untrack(handle);
+            connection.disconnect();
+        }
+    }
+
+    private static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        return connection;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Application-layer latency probe.
+ * Replaces InetAddress.isReachable (a TCP echo on port 7 without root, which
+ * most CDNs drop) with a real HTTPS request, and uses an OkHttp EventListener
+ * to split each probe into DNS, TCP connect, TLS handshake and
+ * time-to-first-byte.
+ */
+public class LatencyProbe {
+
+    private static final String TAG = "LatencyProbe";
+
+    public static final int PROBE_TIMEOUT_MS = 2000;
+    public static final int FETCH_TIMEOUT_MS = 10000;
+
+    private final OkHttpClient probeClient;
+    private final OkHttpClient fetchClient;
+
+    public LatencyProbe(OkHttpClient baseClient) {
+        probeClient = baseClient.newBuilder()
+                // No idle connections, so every probe opens a fresh one and TCP/TLS are measured
+                .connectionPool(new ConnectionPool(0, 1, TimeUnit.MILLISECONDS))
+                .connectTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .readTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .retryOnConnectionFailure(false)
+                .followRedirects(false)
+                .eventListenerFactory(call -> new TimingListener(call.request().tag(Timing.class)))
+                .build();
+        // Same fresh-connection timing, but full GETs that may follow redirects and take longer
+        fetchClient = probeClient.newBuilder()
+                .readTimeout(FETCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .callTimeout(0, TimeUnit.MILLISECONDS)
+                .followRedirects(true)
+                .build();
+    }
+
+    /**
+     * Strips protocol and path from a url or domain
+     */
+    public static String toHost(String host) {
+        return host.replace("https://", "").replace("http://", "").split("/")[0];
+    }
+
+    /**
+     * Strips the path from a url or domain, keeping an http:// scheme so plain-HTTP
+     * servers are probed over HTTP; anything else is probed over HTTPS
+     */
+    public static String toTarget(String host) {
+        return host.startsWith("http://") ? "http://" + toHost(host) : toHost(host);
+    }
+
+    /**
+     * Sends one HEAD request to the host and returns its timing breakdown.
+     * Any HTTP status counts as a reply - only the round trips matter.
+     */
+    public Timing probe(String host) {
+        Timing timing = new Timing();
+        String scheme = host.startsWith("http://") ? "http://" : "https://";
+        Request request = new Request.Builder()
+                .url(scheme + toHost(host) + "/")
+                .head()
+                .header("Cache-Control", "no-cache")
+                .tag(Timing.class, timing)
+                .build();
+
+        try (Response response = probeClient.newCall(request).execute()) {
+            timing.success = true;
+            timing.statusCode = response.code();
+        } catch (IOException e) {
+            Log.e(TAG, "Probe to " + host + " failed: " + e.getMessage());
+        }
+        return timing;
+    }
+
+    /**
+     * Creates a GET for the url on a fresh connection; its DNS / connect / TLS / TTFB
+     * breakdown is recorded in timing while the call runs
+     */
+    public Call newFetchCall(String url, Timing timing) {
+        Request request = new Request.Builder()
+                .url(url)
+                .header("Cache-Control", "no-cache")
+                .tag(Timing.class, timing)
+                .build();
+        return fetchClient.newCall(request);
+    }
+
+    /**
+     * Timing breakdown of one probe, in milliseconds (-1 when a phase did not happen)
+     */
+    public static class Timing {
+        public boolean success;
+        public int statusCode;
+        public double dnsMs = -1;
+        public double connectMs = -1;
+        public double tlsMs = -1;
+        public double ttfbMs = -1;
+        public double totalMs = -1;
+
+        /**
+         * Best estimate of the network round trip: the TCP handshake takes
+         * exactly one RTT and involves no server application code.
+         */
+        public double rttMs() {
+            return connectMs >= 0 ? connectMs : ttfbMs;
+        }
+    }
+
+    /**
+     * Records phase timestamps for one call into its Timing
+     */
+    private static class TimingListener extends EventListener {
+        private final Timing timing;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long secureConnectStart;
+        private long requestStart;
+
+        TimingListener(Timing timing) {
+            this.timing = timing != null ? timing : new Timing();
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = MeasurementCore.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = MeasurementCore.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            timing.dnsMs = elapsedMs(dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectStart = MeasurementCore.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = MeasurementCore.nanoTime();
+            timing.connectMs = (secureConnectStart - connectStart) / 1_000_000.0;
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            timing.tlsMs = elapsedMs(secureConnectStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            if (timing.connectMs < 0) {
+                timing.connectMs = elapsedMs(connectStart);
+            }
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = MeasurementCore.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            timing.ttfbMs = elapsedMs(requestStart);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            timing.totalMs = elapsedMs(callStart);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            timing.totalMs = elapsedMs(callStart);
+        }
+
+        private static double elapsedMs(long startNanos) {
+            return (MeasurementCore.nanoTime() - startNanos) / 1_000_000.0;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Scheduled latency sampler.
+ * Sends probes on a fixed-rate schedule with overlapping in-flight requests,
+ * so the phase takes about count * interval + one probe timeout no matter
+ * how many probes time out. Reports RFC 3550 jitter, percentiles and loss.
+ */
+public class LatencySampler {
+
+    private static final String TAG = "LatencySampler";
+
+    public static final int DEFAULT_COUNT = 10;
+    public static final long DEFAULT_INTERVAL_MS = 100;
+
+    private static final int MAX_IN_FLIGHT = 16;
+
+    private final LatencyProbe probe;
+    private final int count;
+    private final long intervalMs;
+    private LiveSampleReporter reporter;
+
+    public LatencySampler(LatencyProbe probe) {
+        this(probe, DEFAULT_COUNT, DEFAULT_INTERVAL_MS);
+    }
+
+    public LatencySampler(LatencyProbe probe, int count, long intervalMs) {
+        this.probe = probe;
+        this.count = Math.max(1, count);
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Streams live samples of each probe to the reporter (optional)
+     */
+    public void setSampleReporter(LiveSampleReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Longest time a call to sample() can take
+     */
+    public long getMaxDurationMs() {
+        return (count - 1) * intervalMs + LatencyProbe.PROBE_TIMEOUT_MS + 500;
+    }
+
+    /**
+     * Probes the host count times, one every intervalMs, and returns the statistics
+     */
+    public Stats sample(String host) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService workers = Executors.newFixedThreadPool(Math.min(count, MAX_IN_FLIGHT));
+        LatencyProbe.Timing[] timings = new LatencyProbe.Timing[count];
+        CountDownLatch done = new CountDownLatch(count);
+        AtomicInteger sent = new AtomicInteger();
+
+        Log.d(TAG, "Sampling latency for " + host + ": " + count + " probes every " + intervalMs + " ms");
+        if (reporter != null) {
+            reporter.startPhase(LiveSampleReporter.PHASE_PING, null);
+        }
+
+        scheduler.scheduleAtFixedRate(() -> {
+            int index = sent.getAndIncrement();
+            if (index >= count) {
+                return;
+            }
+            workers.execute(() -> {
+                LatencyProbe.Timing timing = probe.probe(host);
+                if (reporter != null && timing.success) {
+                    reporter.reportLatency(timing.rttMs());
+                }
+                synchronized (timings) {
+                    timings[index] = timing;
+                }
+                done.countDown();
+            });
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+
+        try {
+            done.await(getMaxDurationMs(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            scheduler.shutdownNow();
+            workers.shutdownNow();
+            if (reporter != null) {
+                reporter.endPhase();
+            }
+        }
+
+        double[] rtts = new double[count];
+        synchronized (timings) {
+            for (int i = 0; i < count; i++) {
+                rtts[i] = timings[i] != null && timings[i].success ? timings[i].rttMs() : -1;
+            }
+            Stats stats = Stats.compute(rtts);
+            stats.timings = timings.clone();
+            Log.d(TAG, "Latency " + host + ": median " + stats.medianMs + " ms, jitter " + stats.jitterMs
+                    + " ms, loss " + stats.lossRatio);
+            return stats;
+        }
+    }
+
+    /**
+     * Latency statistics over one sampling run, in milliseconds
+     */
+    public static class Stats {
+        public int sent;
+        public int received;
+        public double lossRatio;
+        public double minMs = -1;
+        public double meanMs = -1;
+        public double medianMs = -1;
+        public double p90Ms = -1;
+        public double p99Ms = -1;
+        public double maxMs = -1;
+        // RFC 3550 interarrival jitter over consecutive replies
+        public double jitterMs = -1;
+        public LatencyProbe.Timing[] timings = new LatencyProbe.Timing[0];
+
+        /**
+         * Computes the statistics from RTTs in send order; negative entries are lost probes
+         */
+        public static Stats compute(double[] rttsInSendOrder) {
+            Stats stats = new Stats();
+            stats.sent = rttsInSendOrder.length;
+
+            double[] received = new double[rttsInSendOrder.length];
+            double jitter = -1;
+            double previous = -1;
+            double sum = 0;
+            for (double rtt : rttsInSendOrder) {
+                if (rtt < 0) continue;
+                if (previous >= 0) {
+                    double difference = Math.abs(rtt - previous);
+                    // Seeded with the first difference so short runs are not biased towards zero,
+                    // then J(i) = J(i-1) + (|D(i-1,i)| - J(i-1)) / 16
+                    jitter = jitter < 0 ? difference : jitter + (difference - jitter) / 16.0;
+                }
+                previous = rtt;
+                received[stats.received++] = rtt;
+                sum += rtt;
+            }
+
+            stats.lossRatio = stats.sent > 0 ? 1.0 - (double) stats.received / stats.sent : 0;
+            if (stats.received == 0) {
+                return stats;
+            }
+
+            double[] sorted = Arrays.copyOf(received, stats.received);
+            Arrays.sort(sorted);
+            stats.minMs = sorted[0];
+            stats.maxMs = sorted[sorted.length - 1];
+            stats.meanMs = sum / sorted.length;
+            stats.medianMs = ThroughputEstimator.percentile(sorted, 50);
+            stats.p90Ms = ThroughputEstimator.percentile(sorted, 90);
+            stats.p99Ms = ThroughputEstimator.percentile(sorted, 99);
+            stats.jitterMs = Math.max(jitter, 0);
+            return stats;
+        }
+    }
+}
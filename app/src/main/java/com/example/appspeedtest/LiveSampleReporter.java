@@ -0,0 +1,154 @@
+package com.example.appspeedtest;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams live throughput and latency samples to a listener while a phase runs.
+ * A ticker reads the phase's estimator at a fixed rate, so the measurement
+ * threads never wait for it. Delivery is coalesced: at most one sample is
+ * queued on the delivery executor at a time and it always carries the latest
+ * values, so a slow UI thread is never flooded. Every sample shows the latest
+ * latency, but only one is marked as carrying each new probe result.
+ */
+public class LiveSampleReporter {
+
+    public static final long DEFAULT_INTERVAL_MS = 100;
+
+    public static final String PHASE_PING = "ping";
+    public static final String PHASE_DOWNLOAD = "download";
+    public static final String PHASE_UPLOAD = "upload";
+    // Both directions at once; samples carry the loaded latency only
+    public static final String PHASE_DUPLEX = "duplex";
+
+    public interface Listener {
+        void onSample(LiveSample sample);
+    }
+
+    private final Listener listener;
+    private final Executor deliveryExecutor;
+    private final long intervalMs;
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+
+    private final AtomicReference<LiveSample> latest = new AtomicReference<>();
+    private final AtomicBoolean deliveryQueued = new AtomicBoolean();
+
+    private String phase;
+    private ThroughputEstimator estimator;
+    private long phaseStartNanos;
+    private ScheduledFuture<?> tick;
+    private volatile double latestLatencyMs = -1;
+    // Latest probe result no sample has carried yet, null if none
+    private final AtomicReference<Double> freshLatencyMs = new AtomicReference<>();
+
+    /**
+     * @param deliveryExecutor where the listener is called, e.g. the main thread
+     */
+    public LiveSampleReporter(Listener listener, Executor deliveryExecutor) {
+        this(listener, deliveryExecutor, DEFAULT_INTERVAL_MS);
+    }
+
+    public LiveSampleReporter(Listener listener, Executor deliveryExecutor, long intervalMs) {
+        this.listener = listener;
+        this.deliveryExecutor = deliveryExecutor;
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Starts sampling a phase. The estimator may be null for latency-only phases.
+     */
+    public synchronized void startPhase(String phase, ThroughputEstimator estimator) {
+        stopTicking();
+        this.phase = phase;
+        this.estimator = estimator;
+        this.phaseStartNanos = MeasurementCore.nanoTime();
+        this.latestLatencyMs = -1;
+        freshLatencyMs.set(null);
+        tick = ticker.scheduleAtFixedRate(this::emit, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops sampling the current phase and emits one final sample
+     */
+    public synchronized void endPhase() {
+        if (phase == null) return;
+        stopTicking();
+        emit();
+        phase = null;
+        estimator = null;
+    }
+
+    /**
+     * Records the latest latency probe result; cheap enough to call from any probe thread
+     */
+    public void reportLatency(double rttMs) {
+        latestLatencyMs = rttMs;
+        freshLatencyMs.set(rttMs);
+    }
+
+    public void shutdown() {
+        ticker.shutdownNow();
+    }
+
+    private void stopTicking() {
+        if (tick != null) {
+            tick.cancel(false);
+            tick = null;
+        }
+    }
+
+    private synchronized void emit() {
+        if (phase == null) return;
+
+        Double fresh = freshLatencyMs.getAndSet(null);
+        double throughputMbps = estimator != null ? estimator.currentMbps() : -1;
+        long totalBytes = estimator != null ? estimator.getTotalBytes() : 0;
+        long elapsedMs = (MeasurementCore.nanoTime() - phaseStartNanos) / 1_000_000;
+        while (true) {
+            LiveSample pending = latest.get();
+            // A new probe result in a sample that was never delivered moves on to this one
+            boolean newLatency = fresh != null || (pending != null && pending.newLatency);
+            double latencyMs = fresh != null ? fresh : newLatency ? pending.latencyMs : latestLatencyMs;
+            LiveSample sample = new LiveSample(phase, throughputMbps, totalBytes, elapsedMs, latencyMs, newLatency);
+            if (latest.compareAndSet(pending, sample)) break;
+        }
+
+        if (deliveryQueued.compareAndSet(false, true)) {
+            deliveryExecutor.execute(() -> {
+                deliveryQueued.set(false);
+                LiveSample sample = latest.getAndSet(null);
+                if (sample != null) {
+                    listener.onSample(sample);
+                }
+            });
+        }
+    }
+
+    /**
+     * One live sample (-1 for a value that is not measured in this phase)
+     */
+    public static class LiveSample {
+        public final String phase;
+        public final double throughputMbps;
+        public final long totalBytes;
+        public final long elapsedMs;
+        public final double latencyMs;
+        // Whether latencyMs is a probe result no earlier sample carried
+        public final boolean newLatency;
+
+        public LiveSample(String phase, double throughputMbps, long totalBytes, long elapsedMs, double latencyMs,
+                          boolean newLatency) {
+            this.phase = phase;
+            this.throughputMbps = throughputMbps;
+            this.totalBytes = totalBytes;
+            this.elapsedMs = elapsedMs;
+            this.latencyMs = latencyMs;
+            this.newLatency = newLatency;
+        }
+    }
+}
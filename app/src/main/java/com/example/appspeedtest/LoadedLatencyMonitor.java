@@ -0,0 +1,110 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures latency while a throughput phase is running (bufferbloat).
+ * Probes are tiny HEAD requests sent a few times per second, so they do not
+ * noticeably reduce the measured throughput. Each probe opens a fresh
+ * connection, and its TCP handshake waits in the same queues as the load.
+ */
+public class LoadedLatencyMonitor {
+
+    private static final String TAG = "LoadedLatencyMonitor";
+
+    public static final long DEFAULT_INTERVAL_MS = 250;
+
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final int MAX_SAMPLES = 256;
+
+    private final LatencyProbe probe;
+    private final String host;
+    private final long intervalMs;
+    private LiveSampleReporter reporter;
+
+    private final double[] rtts = new double[MAX_SAMPLES];
+    private int sampleCount;
+
+    private ScheduledExecutorService scheduler;
+    private ExecutorService workers;
+
+    public LoadedLatencyMonitor(LatencyProbe probe, String host) {
+        this(probe, host, DEFAULT_INTERVAL_MS);
+    }
+
+    public LoadedLatencyMonitor(LatencyProbe probe, String host, long intervalMs) {
+        this.probe = probe;
+        this.host = LatencyProbe.toTarget(host);
+        this.intervalMs = intervalMs;
+    }
+
+    /**
+     * Streams live samples of each probe to the reporter (optional)
+     */
+    public void setSampleReporter(LiveSampleReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Starts probing in the background. The first probe waits one interval so the load can build up.
+     */
+    public synchronized void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        workers = Executors.newFixedThreadPool(MAX_IN_FLIGHT);
+
+        Log.d(TAG, "Monitoring loaded latency to " + host + " every " + intervalMs + " ms");
+
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                workers.execute(this::runProbe);
+            } catch (RejectedExecutionException e) {
+                // Stopped while scheduling
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing and returns the latency statistics seen under load.
+     * Probes still in flight are abandoned.
+     */
+    public LatencySampler.Stats stop() {
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                workers.shutdownNow();
+            }
+        }
+
+        double[] samples;
+        synchronized (rtts) {
+            samples = Arrays.copyOf(rtts, sampleCount);
+        }
+        LatencySampler.Stats stats = LatencySampler.Stats.compute(samples);
+        Log.d(TAG, "Loaded latency " + host + ": median " + stats.medianMs + " ms over "
+                + stats.sent + " probes");
+        return stats;
+    }
+
+    private void runProbe() {
+        LatencyProbe.Timing timing = probe.probe(host);
+        if (Thread.currentThread().isInterrupted()) {
+            // Finished after stop() - the load may already be gone
+            return;
+        }
+        if (reporter != null && timing.success) {
+            reporter.reportLatency(timing.rttMs());
+        }
+        synchronized (rtts) {
+            if (sampleCount < rtts.length) {
+                rtts[sampleCount++] = timing.success ? timing.rttMs() : -1;
+            }
+        }
+    }
+}
@@ -1,23 +1,35 @@
 package com.example.appspeedtest;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.Typeface;
 import android.net.ConnectivityManager;
 import android.net.NetworkCapabilities;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 public class MainActivity extends AppCompatActivity {
 
     Spinner serviceSpinner;
     TextView ispText;
-    Button startTestBtn, generalTestBtn;
+    Button startTestBtn, generalTestBtn, scanAllBtn;
+    CheckBox backgroundProbeCheck, duplexCheck;
     RadioGroup testTypeGroup;
+    SpeedTestPipeline scanPipeline;
+
+    // Generous time box; the scan bounds its own duration
+    private static final long SCAN_STEP_TIMEOUT_MS = SpeedTestManager.RESOLVE_TIMEOUT_MS
+            + BatchScanner.SCAN_DEADLINE_MS + 4000;
 
     HashMap<String, String> serviceDomains = new HashMap<>();
 
@@ -30,10 +42,13 @@ public class MainActivity extends AppCompatActivity {
         ispText = findViewById(R.id.ispText);
         startTestBtn = findViewById(R.id.startTestBtn);
         generalTestBtn = findViewById(R.id.generalTestBtn);
+        scanAllBtn = findViewById(R.id.scanAllBtn);
+        backgroundProbeCheck = findViewById(R.id.backgroundProbeCheck);
+        duplexCheck = findViewById(R.id.duplexCheck);
         testTypeGroup = findViewById(R.id.testTypeGroup);
 
         // Load ISP and network type
-        String networkInfo = Utils.getISPName(this) + " (" + getNetworkType() + ")";
+        String networkInfo = Utils.getISPName(this) + " (" + Utils.getNetworkType(this) + ")";
         ispText.setText("Current ISP: " + networkInfo);
 
         // Populate service list
@@ -44,23 +59,32 @@ public class MainActivity extends AppCompatActivity {
         serviceSpinner.setAdapter(adapter);
 
         // Service domains - using CDN domains for more accurate testing
-        serviceDomains.put("WhatsApp", "web.whatsapp.com");
-        serviceDomains.put("Facebook", "scontent.xx.fbcdn.net");
-        serviceDomains.put("TikTok", "v16m.tiktokcdn.com");
-        serviceDomains.put("YouTube", "googlevideo.com");
-        serviceDomains.put("Instagram", "scontent.cdninstagram.com");
-        serviceDomains.put("Twitter", "pbs.twimg.com");
+        serviceDomains.putAll(Utils.getServiceDomains());
+
+        // Periodic background probes, building a baseline for the history
+        backgroundProbeCheck.setChecked(BackgroundProbeScheduler.isEnabled(this));
+        backgroundProbeCheck.setOnCheckedChangeListener((button, checked) -> {
+            if (checked) {
+                BackgroundProbeScheduler.enable(this, false);
+            } else {
+                BackgroundProbeScheduler.disable(this);
+            }
+        });
 
         // Test type radio group listener
         testTypeGroup.setOnCheckedChangeListener((group, checkedId) -> {
             if (checkedId == R.id.radioContentTest) {
                 serviceSpinner.setVisibility(View.VISIBLE);
                 startTestBtn.setVisibility(View.VISIBLE);
+                scanAllBtn.setVisibility(View.VISIBLE);
                 generalTestBtn.setVisibility(View.GONE);
+                duplexCheck.setVisibility(View.GONE);
             } else if (checkedId == R.id.radioGeneralTest) {
                 serviceSpinner.setVisibility(View.GONE);
                 startTestBtn.setVisibility(View.GONE);
+                scanAllBtn.setVisibility(View.GONE);
                 generalTestBtn.setVisibility(View.VISIBLE);
+                duplexCheck.setVisibility(View.VISIBLE);
             }
         });
 
@@ -83,6 +107,17 @@ public class MainActivity extends AppCompatActivity {
             startActivity(intent);
         });
 
+        // Scan all services at once
+        scanAllBtn.setOnClickListener(v -> {
+            if (!isNetworkAvailable()) {
+                Toast.makeText(MainActivity.this,
+                        "No network connection available!",
+                        Toast.LENGTH_SHORT).show();
+                return;
+            }
+            startScanAll();
+        });
+
         // General mobile data test button
         generalTestBtn.setOnClickListener(v -> {
             if (!isNetworkAvailable()) {
@@ -96,25 +131,81 @@ public class MainActivity extends AppCompatActivity {
             intent.putExtra("testType", "general");
             intent.putExtra("service", "Mobile Data");
             intent.putExtra("domain", "general");
+            intent.putExtra("duplex", duplexCheck.isChecked());
             startActivity(intent);
         });
     }
 
-    private String getNetworkType() {
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (cm != null) {
-            NetworkCapabilities capabilities = cm.getNetworkCapabilities(cm.getActiveNetwork());
-            if (capabilities != null) {
-                if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
-                    return "WiFi";
-                } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
-                    return "Mobile Data";
-                } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
-                    return "Ethernet";
+    @Override
+    protected void onDestroy() {
+        if (scanPipeline != null) {
+            scanPipeline.cancel();
+        }
+        super.onDestroy();
+    }
+
+    private void startScanAll() {
+        scanAllBtn.setEnabled(false);
+        scanAllBtn.setText("Scanning...");
+
+        ServiceCatalog catalog = ServiceCatalog.fromResources(this);
+        SpeedTestManager stm = new SpeedTestManager();
+        SpeedTestPipeline pipeline = new SpeedTestPipeline(stm);
+        scanPipeline = pipeline;
+        List<List<BatchScanner.ServiceScan>> ranking = new ArrayList<>();
+
+        pipeline.addStep("scan", SCAN_STEP_TIMEOUT_MS, () -> {
+            // Each service bursts on the largest object it resolves to
+            HashMap<String, String> burstUrls = new HashMap<>();
+            for (Map.Entry<String, List<String>> entry
+                    : stm.resolveServiceObjects(catalog, serviceDomains.keySet()).entrySet()) {
+                burstUrls.put(entry.getKey(), entry.getValue().get(0));
+            }
+            ranking.add(stm.scanServices(serviceDomains, burstUrls, BatchScanner.DEFAULT_BYTE_BUDGET));
+        });
+
+        pipeline.start(new SpeedTestPipeline.Listener() {
+            @Override
+            public void onStepStarted(String name) {
+            }
+
+            @Override
+            public void onStepFinished(String name, boolean completed) {
+            }
+
+            @Override
+            public void onFinished() {
+                scanAllBtn.setEnabled(true);
+                scanAllBtn.setText("Scan All Apps");
+                if (ranking.isEmpty()) {
+                    Toast.makeText(MainActivity.this, "Scan failed", Toast.LENGTH_SHORT).show();
+                } else {
+                    showScanResults(ranking.get(0));
                 }
             }
+        });
+    }
+
+    private void showScanResults(List<BatchScanner.ServiceScan> ranking) {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format(Locale.US, "%-3s %-10s %8s %9s%n", "#", "App", "Ping", "Mbps"));
+        int rank = 1;
+        for (BatchScanner.ServiceScan scan : ranking) {
+            String ping = scan.latencyMs >= 0 ? Math.round(scan.latencyMs) + " ms" : "--";
+            String mbps = scan.burstMbps >= 0 ? String.format(Locale.US, "%.1f", scan.burstMbps) : "--";
+            table.append(String.format(Locale.US, "%-3d %-10s %8s %9s%n", rank++, scan.service, ping, mbps));
         }
-        return "Unknown";
+
+        TextView tableView = new TextView(this);
+        tableView.setText(table.toString());
+        tableView.setTypeface(Typeface.MONOSPACE);
+        tableView.setPadding(48, 32, 48, 0);
+
+        new AlertDialog.Builder(this)
+                .setTitle("Best apps right now")
+                .setView(tableView)
+                .setPositiveButton("OK", null)
+                .show();
     }
 
     private boolean isNetworkAvailable() {
@@ -0,0 +1,221 @@
+package com.example.appspeedtest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Shared measurement hot path for every download and upload loop.
+ * Uses the monotonic nanosecond clock, only reads the clock every few
+ * reads/writes (amortized over a byte count), reuses pooled buffers and
+ * never logs or formats strings inside the loop, so the CPU cost of
+ * measuring does not show up in the result.
+ */
+public class MeasurementCore {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    // Most concurrent connections any engine or connection pool opens to one host
+    public static final int MAX_STREAMS = 16;
+
+    // Read the clock once this many bytes or I/O calls have gone by, whichever comes first.
+    // Fast links hit the byte limit, slow links the call limit, so checks stay well inside a bucket.
+    private static final long CLOCK_CHECK_BYTES = 256 * 1024;
+    private static final int CLOCK_CHECK_CALLS = 8;
+
+    private static final MeasurementCore DEFAULT = new MeasurementCore(DEFAULT_BUFFER_SIZE);
+
+    private final int bufferSize;
+    private final ConcurrentLinkedQueue<byte[]> bufferPool = new ConcurrentLinkedQueue<>();
+
+    public MeasurementCore(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    public static MeasurementCore getDefault() {
+        return DEFAULT;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Monotonic clock used by all measurements
+     */
+    public static long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Rate in Mbps of bytes moved in durationMs; 0 if either is not positive
+     */
+    public static double toMbps(long bytes, long durationMs) {
+        if (bytes <= 0 || durationMs <= 0) {
+            return 0;
+        }
+        return (bytes * 8.0) / (durationMs / 1000.0 * 1_000_000.0);
+    }
+
+    /**
+     * Body stream that can count arriving bytes without handing them over, e.g. because
+     * they already sit in a reused direct buffer. read() uses it instead of copying
+     * every byte into a heap buffer.
+     */
+    public interface DiscardingSource {
+        /**
+         * Receives and drops up to maxBytes; returns how many, or -1 at the end of the body
+         */
+        long discard(long maxBytes) throws IOException;
+    }
+
+    /**
+     * Reads the stream until EOF or the deadline, feeding the estimator.
+     * Returns the byte count and timing of this stream in the given span.
+     */
+    public void read(InputStream in, Deadline deadline, ThroughputEstimator estimator, Span span)
+            throws IOException {
+        DiscardingSource discarding = in instanceof DiscardingSource ? (DiscardingSource) in : null;
+        byte[] buffer = discarding == null ? acquireBuffer() : null;
+        long pending = 0;
+        int calls = 0;
+        long now = nanoTime();
+        span.startNanos = now;
+
+        try {
+            long read;
+            while ((read = discarding != null ? discarding.discard(bufferSize) : in.read(buffer)) != -1) {
+                pending += read;
+                if (pending >= CLOCK_CHECK_BYTES || ++calls >= CLOCK_CHECK_CALLS) {
+                    now = nanoTime();
+                    estimator.addSample(now, pending);
+                    span.bytes += pending;
+                    pending = 0;
+                    calls = 0;
+                    if (now >= deadline.nanos()) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            if (pending > 0) {
+                now = nanoTime();
+                estimator.addSample(now, pending);
+                span.bytes += pending;
+            }
+            span.endNanos = Math.min(now, deadline.nanos());
+            if (buffer != null) {
+                releaseBuffer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Writes the payload repeatedly until the deadline or maxBytes, feeding the estimator.
+     * The payload is only read, so one block can be shared by several writers.
+     */
+    public void write(OutputStream out, byte[] payload, Deadline deadline, long maxBytes,
+                      ThroughputEstimator estimator, Span span) throws IOException {
+        write(out, payload, 0, payload.length, deadline, maxBytes, estimator, span);
+    }
+
+    /**
+     * Same as write(), but cycles through the payload in writes of at most chunkSize
+     * bytes, starting at offset
+     */
+    public void write(OutputStream out, byte[] payload, int offset, int chunkSize, Deadline deadline,
+                      long maxBytes, ThroughputEstimator estimator, Span span) throws IOException {
+        long pending = 0;
+        int calls = 0;
+        int position = offset;
+        long now = nanoTime();
+        span.startNanos = now;
+
+        try {
+            while (now < deadline.nanos() && span.bytes + pending < maxBytes) {
+                int length = (int) Math.min(Math.min(chunkSize, payload.length - position),
+                        maxBytes - span.bytes - pending);
+                out.write(payload, position, length);
+                position += length;
+                if (position == payload.length) {
+                    position = 0;
+                }
+                pending += length;
+                if (pending >= CLOCK_CHECK_BYTES || ++calls >= CLOCK_CHECK_CALLS) {
+                    now = nanoTime();
+                    estimator.addSample(now, pending);
+                    span.bytes += pending;
+                    pending = 0;
+                    calls = 0;
+                }
+            }
+            out.flush();
+        } finally {
+            if (pending > 0) {
+                now = nanoTime();
+                estimator.addSample(now, pending);
+                span.bytes += pending;
+            }
+            span.endNanos = nanoTime();
+        }
+    }
+
+    private byte[] acquireBuffer() {
+        byte[] buffer = bufferPool.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    private void releaseBuffer(byte[] buffer) {
+        bufferPool.offer(buffer);
+    }
+
+    /**
+     * End of a transfer in nanoTime. Can be pulled in while the transfer runs,
+     * e.g. once the throughput has converged; the loops see it at their next clock check.
+     */
+    public static class Deadline {
+        private final long initialNanos;
+        private volatile long nanos;
+
+        public Deadline(long nanos) {
+            this.initialNanos = nanos;
+            this.nanos = nanos;
+        }
+
+        public long nanos() {
+            return nanos;
+        }
+
+        public long initialNanos() {
+            return initialNanos;
+        }
+
+        /**
+         * Moves the deadline earlier (never later)
+         */
+        public synchronized void stopAt(long stopNanos) {
+            if (stopNanos < nanos) {
+                nanos = stopNanos;
+            }
+        }
+
+        public boolean wasPulledIn() {
+            return nanos < initialNanos;
+        }
+    }
+
+    /**
+     * Bytes and timing of one stream. Only written at clock checks, so the
+     * fields can be volatile and read from another thread while it runs.
+     */
+    public static class Span {
+        public volatile long bytes;
+        public volatile long startNanos;
+        public volatile long endNanos;
+
+        public long durationMs() {
+            return (endNanos - startNanos) / 1_000_000;
+        }
+    }
+}
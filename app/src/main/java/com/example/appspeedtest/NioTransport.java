@@ -0,0 +1,790 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import okhttp3.Dns;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * Minimal HTTP/1.1 transport over a SocketChannel, with TLS through SSLEngine.
+ * Response bodies land in a large direct ByteBuffer that lives as long as the
+ * connection and are only counted (MeasurementCore.DiscardingSource), so no body
+ * byte is copied onto the Java heap. Covers what the test servers need: GET with
+ * an optional Range, chunked POST, Content-Length or close-delimited responses and
+ * keep-alive reuse. Chunked responses and proxies are not supported - the preflight
+ * in SpeedTestManager.selectTransport() then falls through to the next backend.
+ */
+public class NioTransport implements Transport {
+
+    private static final String TAG = "NioTransport";
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    // Plaintext receive buffer per connection; one read() can drain this much from the socket
+    private static final int BODY_BUFFER_SIZE = 256 * 1024;
+    // Encrypted receive buffer, room for several TLS records
+    private static final int NET_BUFFER_SIZE = 64 * 1024;
+    // Outgoing plaintext per write: one 64 KB chunk plus its framing
+    private static final int SEND_BUFFER_SIZE = 64 * 1024 + 16;
+    private static final int MAX_HEAD_BYTES = 16 * 1024;
+
+    private final Dns dns;
+    private final CallTracker tracker;
+    // Idle keep-alive connections per scheme://host:port
+    private final Map<String, Queue<Connection>> idle = new ConcurrentHashMap<>();
+
+    public NioTransport(Dns dns, CallTracker tracker) {
+        this.dns = dns;
+        this.tracker = tracker;
+    }
+
+    @Override
+    public String getName() {
+        return "NIO";
+    }
+
+    @Override
+    public boolean supports(String url) {
+        try {
+            URI uri = URI.create(url);
+            if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme())) {
+                return false;
+            }
+            // The channel connects directly, so a configured proxy rules this backend out
+            ProxySelector selector = ProxySelector.getDefault();
+            List<Proxy> proxies = selector != null ? selector.select(uri) : null;
+            return proxies == null || proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int warmUp(String url, int connections) {
+        Endpoint endpoint;
+        try {
+            endpoint = Endpoint.parse(url);
+        } catch (IOException e) {
+            return 0;
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(connections);
+        CountDownLatch latch = new CountDownLatch(connections);
+        AtomicInteger warmed = new AtomicInteger();
+
+        Log.d(TAG, "Warming up " + connections + " connection(s) to: " + url);
+
+        for (int i = 0; i < connections; i++) {
+            workers.execute(() -> {
+                try {
+                    // Connected and handshaken, then parked until a request picks it up
+                    release(connect(endpoint));
+                    warmed.incrementAndGet();
+                } catch (IOException e) {
+                    Log.e(TAG, "Warm-up failed: " + e.getMessage());
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+
+        try {
+            latch.await(WARM_UP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+        }
+        return warmed.get();
+    }
+
+    @Override
+    public InputStream openDownload(String url, long rangeBytes) throws IOException {
+        Endpoint endpoint = Endpoint.parse(url);
+        StringBuilder head = requestHead("GET", endpoint);
+        if (rangeBytes > 0) {
+            head.append("Range: bytes=0-").append(rangeBytes - 1).append("\r\n");
+        }
+        head.append("\r\n");
+
+        Exchange exchange = send(endpoint, head.toString());
+        Response response = exchange.response;
+        if (response.code != 200 && response.code != 206) {
+            exchange.abort();
+            throw new IOException("HTTP error code: " + response.code);
+        }
+        return new BodyStream(exchange);
+    }
+
+    @Override
+    public long upload(String url, StreamingUploadEngine engine) throws IOException {
+        Endpoint endpoint = Endpoint.parse(url);
+        String head = requestHead("POST", endpoint)
+                .append("Content-Type: application/octet-stream\r\n")
+                .append("Transfer-Encoding: chunked\r\n")
+                .append("\r\n")
+                .toString();
+
+        ByteBuffer request = ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII));
+        Connection connection = poll(endpoint);
+        Closeable handle = null;
+        if (connection != null) {
+            handle = tracker.track(connection);
+            try {
+                if (connection.closedByPeer()) {
+                    throw new EOFException("Pooled connection closed by the server");
+                }
+                connection.write(request);
+            } catch (IOException e) {
+                // No body byte is sent or counted yet, so a fresh connection takes over unseen
+                tracker.untrack(handle);
+                connection.close();
+                request.rewind();
+                connection = null;
+            }
+        }
+        if (connection == null) {
+            connection = connect(endpoint);
+            handle = tracker.track(connection);
+            try {
+                connection.write(request);
+            } catch (IOException e) {
+                tracker.untrack(handle);
+                connection.close();
+                throw e;
+            }
+        }
+
+        boolean reusable = false;
+        try {
+            engine.setInFlight(handle);
+            ChunkedOutputStream body = new ChunkedOutputStream(connection);
+            engine.writeBody(body);
+            body.finish();
+
+            Response response = connection.readHead();
+            long ackTime = MeasurementCore.nanoTime();
+            BodyStream ack = new BodyStream(new Exchange(connection, response, null));
+            while (ack.discard(BODY_BUFFER_SIZE) != -1) {
+                // Drain the (small) acknowledgement so the connection can be reused
+            }
+            if (response.code / 100 != 2) {
+                throw new IOException("Upload response code: " + response.code);
+            }
+            reusable = response.keepAlive;
+            return ackTime;
+        } finally {
+            tracker.untrack(handle);
+            if (reusable) {
+                release(connection);
+            } else {
+                connection.close();
+            }
+        }
+    }
+
+    private static StringBuilder requestHead(String method, Endpoint endpoint) {
+        return new StringBuilder(256)
+                .append(method).append(' ').append(endpoint.target).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(endpoint.hostHeader).append("\r\n")
+                .append("User-Agent: AppSpeedTest\r\n")
+                .append("Accept-Encoding: identity\r\n")
+                .append("Cache-Control: no-cache\r\n");
+    }
+
+    /**
+     * Sends a bodiless request and reads the response head. A pooled connection the
+     * server has meanwhile closed is replaced by a fresh one once.
+     */
+    private Exchange send(Endpoint endpoint, String head) throws IOException {
+        ByteBuffer request = ByteBuffer.wrap(head.getBytes(StandardCharsets.US_ASCII));
+        Connection pooled = poll(endpoint);
+        if (pooled != null) {
+            Closeable handle = tracker.track(pooled);
+            try {
+                pooled.write(request);
+                return new Exchange(pooled, pooled.readHead(), handle);
+            } catch (IOException e) {
+                tracker.untrack(handle);
+                pooled.close();
+                request.rewind();
+            }
+        }
+        Connection connection = connect(endpoint);
+        Closeable handle = tracker.track(connection);
+        try {
+            connection.write(request);
+            return new Exchange(connection, connection.readHead(), handle);
+        } catch (IOException e) {
+            tracker.untrack(handle);
+            connection.close();
+            throw e;
+        }
+    }
+
+    private Connection poll(Endpoint endpoint) {
+        Queue<Connection> queue = idle.get(endpoint.key);
+        return queue != null ? queue.poll() : null;
+    }
+
+    private void release(Connection connection) {
+        Queue<Connection> queue = idle.computeIfAbsent(connection.key, key -> new ConcurrentLinkedQueue<>());
+        if (queue.size() < MeasurementCore.MAX_STREAMS) {
+            queue.offer(connection);
+        } else {
+            connection.close();
+        }
+    }
+
+    private Connection connect(Endpoint endpoint) throws IOException {
+        IOException failure = null;
+        for (InetAddress address : dns.lookup(endpoint.host)) {
+            SocketChannel channel = SocketChannel.open();
+            Connection connection = null;
+            try {
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                channel.configureBlocking(false);
+                connection = new Connection(endpoint, channel);
+                Closeable handle = tracker.track(connection);
+                try {
+                    connection.connect(new InetSocketAddress(address, endpoint.port));
+                    if (endpoint.tls) {
+                        connection.handshake();
+                    }
+                } finally {
+                    tracker.untrack(handle);
+                }
+                return connection;
+            } catch (IOException e) {
+                failure = e;
+                if (connection != null) {
+                    connection.close();
+                } else {
+                    channel.close();
+                }
+            }
+        }
+        throw failure != null ? failure : new IOException("No address for " + endpoint.host);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * Scheme, host, port and request target of a url
+     */
+    private static class Endpoint {
+        String key;
+        String host;
+        String hostHeader;
+        int port;
+        boolean tls;
+        String target;
+
+        static Endpoint parse(String url) throws IOException {
+            URI uri;
+            try {
+                uri = URI.create(url);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Bad url: " + url);
+            }
+            Endpoint endpoint = new Endpoint();
+            endpoint.tls = "https".equals(uri.getScheme());
+            endpoint.host = uri.getHost();
+            if (endpoint.host == null) {
+                throw new IOException("Bad url: " + url);
+            }
+            int defaultPort = endpoint.tls ? 443 : 80;
+            endpoint.port = uri.getPort() > 0 ? uri.getPort() : defaultPort;
+            endpoint.hostHeader = endpoint.port == defaultPort ? endpoint.host : endpoint.host + ":" + endpoint.port;
+            String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            endpoint.target = uri.getRawQuery() != null ? path + "?" + uri.getRawQuery() : path;
+            endpoint.key = uri.getScheme() + "://" + endpoint.hostHeader;
+            return endpoint;
+        }
+    }
+
+    /**
+     * Status and framing of one response
+     */
+    private static class Response {
+        int code;
+        long contentLength = -1;
+        boolean keepAlive = true;
+    }
+
+    /**
+     * One request in flight on a connection
+     */
+    private static class Exchange {
+        final Connection connection;
+        final Response response;
+        final Closeable handle;
+
+        Exchange(Connection connection, Response response, Closeable handle) {
+            this.connection = connection;
+            this.response = response;
+            this.handle = handle;
+        }
+
+        void abort() {
+            if (handle != null) {
+                connection.tracker.untrack(handle);
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * Response body. discard() counts bytes straight out of the connection's direct buffer;
+     * read() copies them for callers that need the bytes.
+     */
+    private class BodyStream extends InputStream implements MeasurementCore.DiscardingSource {
+        private final Exchange exchange;
+        private final Connection connection;
+        private long remaining;
+        private boolean closed;
+
+        BodyStream(Exchange exchange) {
+            this.exchange = exchange;
+            this.connection = exchange.connection;
+            this.remaining = exchange.response.contentLength >= 0
+                    ? exchange.response.contentLength : Long.MAX_VALUE;
+        }
+
+        /**
+         * Bytes of the body ready in the buffer (receiving more if needed), or -1 at its end
+         */
+        private int available(long maxBytes) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            ByteBuffer buffer = connection.appIn;
+            if (!buffer.hasRemaining() && !connection.fill()) {
+                if (exchange.response.contentLength >= 0) {
+                    throw new EOFException("Connection closed " + remaining + " bytes before the end of the body");
+                }
+                remaining = 0;
+                return -1;
+            }
+            return (int) Math.min(buffer.remaining(), Math.min(maxBytes, remaining));
+        }
+
+        @Override
+        public long discard(long maxBytes) throws IOException {
+            int count = available(maxBytes);
+            if (count > 0) {
+                connection.appIn.position(connection.appIn.position() + count);
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int count = available(len);
+            if (count > 0) {
+                connection.appIn.get(b, off, count);
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (exchange.handle != null) {
+                tracker.untrack(exchange.handle);
+            }
+            if (remaining == 0 && exchange.response.keepAlive && exchange.response.contentLength >= 0) {
+                release(connection);
+            } else {
+                // Unread body left on the wire - the connection cannot carry another request
+                connection.close();
+            }
+        }
+    }
+
+    /**
+     * Chunked request body, staged through the connection's direct send buffer
+     */
+    private static class ChunkedOutputStream extends OutputStream {
+        private static final byte[] CRLF = {'\r', '\n'};
+        // Room kept for the hex size line and the trailing CRLF
+        private static final int CHUNK_OVERHEAD = 16;
+
+        private final Connection connection;
+
+        ChunkedOutputStream(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer out = connection.appOut;
+            while (len > 0) {
+                int chunk = Math.min(len, out.capacity() - CHUNK_OVERHEAD);
+                out.clear();
+                out.put(Integer.toHexString(chunk).getBytes(StandardCharsets.US_ASCII)).put(CRLF);
+                out.put(b, off, chunk).put(CRLF);
+                out.flip();
+                connection.write(out);
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        void finish() throws IOException {
+            connection.write(ByteBuffer.wrap("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)));
+        }
+    }
+
+    /**
+     * One non-blocking channel driven through its own selector, so every wait has a timeout.
+     * Used by one thread at a time; close() may come from any thread.
+     */
+    private class Connection implements Closeable {
+        final String key;
+        final CallTracker tracker = NioTransport.this.tracker;
+        final SocketChannel channel;
+        final Selector selector;
+        final SSLEngine engine;
+        // Plaintext received and not consumed yet, kept in read mode
+        final ByteBuffer appIn = ByteBuffer.allocateDirect(BODY_BUFFER_SIZE);
+        final ByteBuffer appOut = ByteBuffer.allocateDirect(SEND_BUFFER_SIZE);
+        // TLS records received and not unwrapped yet (read mode), and records to send
+        final ByteBuffer netIn;
+        final ByteBuffer netOut;
+        private final SelectionKey selectionKey;
+
+        Connection(Endpoint endpoint, SocketChannel channel) throws IOException {
+            this.key = endpoint.key;
+            this.channel = channel;
+            this.selector = Selector.open();
+            this.selectionKey = channel.register(selector, 0);
+            appIn.flip();
+            if (endpoint.tls) {
+                SSLContext context;
+                try {
+                    context = SSLContext.getDefault();
+                } catch (Exception e) {
+                    throw new IOException("TLS unavailable: " + e.getMessage());
+                }
+                engine = context.createSSLEngine(endpoint.host, endpoint.port);
+                engine.setUseClientMode(true);
+                // The engine checks the certificate against the host name during the handshake
+                SSLParameters parameters = engine.getSSLParameters();
+                parameters.setEndpointIdentificationAlgorithm("HTTPS");
+                engine.setSSLParameters(parameters);
+                int packetSize = engine.getSession().getPacketBufferSize();
+                netIn = ByteBuffer.allocateDirect(Math.max(NET_BUFFER_SIZE, packetSize));
+                netOut = ByteBuffer.allocateDirect(packetSize);
+                netIn.flip();
+            } else {
+                engine = null;
+                netIn = null;
+                netOut = null;
+            }
+        }
+
+        void connect(InetSocketAddress address) throws IOException {
+            if (!channel.connect(address)) {
+                await(SelectionKey.OP_CONNECT, CONNECT_TIMEOUT_MS);
+                while (!channel.finishConnect()) {
+                    await(SelectionKey.OP_CONNECT, CONNECT_TIMEOUT_MS);
+                }
+            }
+        }
+
+        void handshake() throws IOException {
+            engine.beginHandshake();
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                    && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                switch (status) {
+                    case NEED_WRAP:
+                        netOut.clear();
+                        status = engine.wrap(ByteBuffer.allocate(0), netOut).getHandshakeStatus();
+                        netOut.flip();
+                        writeFully(netOut);
+                        break;
+                    case NEED_UNWRAP:
+                    case NEED_UNWRAP_AGAIN:
+                        appIn.compact();
+                        SSLEngineResult result = engine.unwrap(netIn, appIn);
+                        appIn.flip();
+                        if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                            if (!readNet()) {
+                                throw new EOFException("Connection closed during the TLS handshake");
+                            }
+                        } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("TLS closed during the handshake");
+                        }
+                        status = result.getHandshakeStatus();
+                        break;
+                    case NEED_TASK:
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        status = engine.getHandshakeStatus();
+                        break;
+                    default:
+                        throw new SSLException("Unexpected handshake status " + status);
+                }
+            }
+        }
+
+        /**
+         * Whether the server has closed this idle connection, checked without blocking.
+         * An idle connection has nothing to read, so any data or the end of the stream
+         * means it can no longer carry a request.
+         */
+        boolean closedByPeer() {
+            if (appIn.hasRemaining() || (netIn != null && netIn.hasRemaining())) {
+                return true;
+            }
+            try {
+                return channel.read(ByteBuffer.allocate(1)) != 0;
+            } catch (IOException e) {
+                return true;
+            }
+        }
+
+        /**
+         * Sends the whole buffer (plaintext; encrypted on the way for TLS)
+         */
+        void write(ByteBuffer src) throws IOException {
+            if (engine == null) {
+                writeFully(src);
+                return;
+            }
+            while (src.hasRemaining()) {
+                netOut.clear();
+                SSLEngineResult result = engine.wrap(src, netOut);
+                if (result.getStatus() != SSLEngineResult.Status.OK) {
+                    throw new SSLException("TLS wrap failed: " + result.getStatus());
+                }
+                netOut.flip();
+                writeFully(netOut);
+            }
+        }
+
+        /**
+         * Receives more plaintext into appIn; returns false at the end of the stream
+         */
+        boolean fill() throws IOException {
+            appIn.compact();
+            try {
+                if (engine == null) {
+                    return readChannel(appIn) >= 0 || appIn.position() > 0;
+                }
+                while (true) {
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        // Post-handshake messages such as TLS 1.3 session tickets
+                        Runnable task;
+                        while ((task = engine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                    }
+                    switch (result.getStatus()) {
+                        case OK:
+                            if (result.bytesProduced() > 0 && !netIn.hasRemaining()) {
+                                return true;
+                            }
+                            if (result.bytesProduced() == 0 && !netIn.hasRemaining() && !readNet()) {
+                                return appIn.position() > 0;
+                            }
+                            break;
+                        case BUFFER_UNDERFLOW:
+                            if (appIn.position() > 0) {
+                                return true;
+                            }
+                            if (!readNet()) {
+                                return false;
+                            }
+                            break;
+                        case BUFFER_OVERFLOW:
+                            // appIn is full - let the caller consume it first
+                            return true;
+                        default:
+                            return appIn.position() > 0;
+                    }
+                }
+            } finally {
+                appIn.flip();
+            }
+        }
+
+        /**
+         * Reads the status line and headers; any body bytes read with them stay in appIn
+         */
+        Response readHead() throws IOException {
+            StringBuilder head = new StringBuilder(512);
+            while (true) {
+                while (appIn.hasRemaining()) {
+                    head.append((char) (appIn.get() & 0xff));
+                    int length = head.length();
+                    if (length >= 4 && head.charAt(length - 1) == '\n' && head.charAt(length - 2) == '\r'
+                            && head.charAt(length - 3) == '\n' && head.charAt(length - 4) == '\r') {
+                        return parseHead(head.toString());
+                    }
+                }
+                if (head.length() > MAX_HEAD_BYTES) {
+                    throw new IOException("Response head too large");
+                }
+                if (!fill()) {
+                    throw new EOFException("Connection closed before the response head");
+                }
+            }
+        }
+
+        private Response parseHead(String head) throws IOException {
+            String[] lines = head.split("\r\n");
+            String[] status = lines[0].split(" ");
+            if (status.length < 2 || !status[0].startsWith("HTTP/1.")) {
+                throw new IOException("Unexpected status line: " + lines[0]);
+            }
+            Response response = new Response();
+            try {
+                response.code = Integer.parseInt(status[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Unexpected status line: " + lines[0]);
+            }
+            response.keepAlive = status[0].equals("HTTP/1.1");
+            for (int i = 1; i < lines.length; i++) {
+                int colon = lines[i].indexOf(':');
+                if (colon < 0) continue;
+                String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = lines[i].substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    response.contentLength = Long.parseLong(value);
+                } else if (name.equals("transfer-encoding") && !value.equalsIgnoreCase("identity")) {
+                    throw new IOException("Unsupported transfer encoding: " + value);
+                } else if (name.equals("connection")) {
+                    response.keepAlive = !value.equalsIgnoreCase("close");
+                }
+            }
+            if (response.code == 204 || response.code == 304) {
+                response.contentLength = 0;
+            }
+            return response;
+        }
+
+        /**
+         * Reads more TLS records into netIn; returns false at the end of the stream
+         */
+        private boolean readNet() throws IOException {
+            netIn.compact();
+            try {
+                return readChannel(netIn) >= 0;
+            } finally {
+                netIn.flip();
+            }
+        }
+
+        private int readChannel(ByteBuffer dst) throws IOException {
+            while (true) {
+                int read = channel.read(dst);
+                if (read != 0 || !dst.hasRemaining()) {
+                    return read;
+                }
+                await(SelectionKey.OP_READ, READ_TIMEOUT_MS);
+            }
+        }
+
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                if (channel.write(src) == 0) {
+                    await(SelectionKey.OP_WRITE, READ_TIMEOUT_MS);
+                }
+            }
+        }
+
+        private void await(int operation, long timeoutMs) throws IOException {
+            try {
+                selectionKey.interestOps(operation);
+                int ready = selector.select(timeoutMs);
+                selector.selectedKeys().clear();
+                if (ready == 0) {
+                    if (!channel.isOpen()) {
+                        throw new IOException("Connection closed");
+                    }
+                    throw new SocketTimeoutException("Timed out after " + timeoutMs + " ms");
+                }
+            } catch (ClosedSelectorException | CancelledKeyException e) {
+                throw new IOException("Connection closed");
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport over the shared OkHttpClient (pooled HTTP/1.1 connections, caching DNS)
+ */
+public class OkHttpTransport implements Transport {
+
+    private static final String TAG = "OkHttpTransport";
+
+    private final OkHttpClient client;
+    private final CallTracker tracker;
+
+    public OkHttpTransport(OkHttpClient client, CallTracker tracker) {
+        this.client = client;
+        this.tracker = tracker;
+    }
+
+    @Override
+    public String getName() {
+        return "OkHttp";
+    }
+
+    @Override
+    public boolean supports(String url) {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    @Override
+    public int warmUp(String url, int connections) {
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .build();
+
+        CountDownLatch latch = new CountDownLatch(connections);
+        AtomicInteger warmed = new AtomicInteger();
+
+        Log.d(TAG, "Warming up " + connections + " connection(s) to: " + url);
+
+        for (int i = 0; i < connections; i++) {
+            Call warmUpCall = client.newCall(request);
+            Closeable handle;
+            try {
+                handle = tracker.track(warmUpCall::cancel);
+            } catch (IOException e) {
+                return warmed.get();
+            }
+            warmUpCall.enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    // Any status will do - the connection is open and goes back to the pool
+                    response.close();
+                    tracker.untrack(handle);
+                    warmed.incrementAndGet();
+                    latch.countDown();
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.e(TAG, "Warm-up failed: " + e.getMessage());
+                    tracker.untrack(handle);
+                    latch.countDown();
+                }
+            });
+        }
+
+        try {
+            latch.await(WARM_UP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Log.d(TAG, "Warmed up " + warmed.get() + " connection(s), pool now holds "
+                + client.connectionPool().connectionCount());
+        return warmed.get();
+    }
+
+    @Override
+    public InputStream openDownload(String url, long rangeBytes) throws IOException {
+        Request.Builder builder = new Request.Builder()
+                .url(url)
+                .addHeader("Cache-Control", "no-cache");
+        if (rangeBytes > 0) {
+            builder.addHeader("Range", "bytes=0-" + (rangeBytes - 1));
+        }
+
+        Call call = client.newCall(builder.build());
+        Closeable handle = tracker.track(call::cancel);
+        Response response;
+        try {
+            response = call.execute();
+        } catch (IOException e) {
+            tracker.untrack(handle);
+            throw e;
+        }
+        if (!response.isSuccessful() || response.body() == null) {
+            tracker.untrack(handle);
+            response.close();
+            throw new IOException("Response not successful or body is null");
+        }
+        // Closing the byte stream releases the connection back to the pool
+        return new FilterInputStream(response.body().byteStream()) {
+            @Override
+            public void close() throws IOException {
+                tracker.untrack(handle);
+                super.close();
+            }
+        };
+    }
+
+    @Override
+    public long upload(String url, StreamingUploadEngine engine) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .post(engine.asRequestBody())
+                .build();
+        Call call = client.newCall(request);
+        Closeable handle = tracker.track(call::cancel);
+        try {
+            engine.setInFlight(handle);
+            try (Response response = call.execute()) {
+                long ackTime = MeasurementCore.nanoTime();
+                if (!response.isSuccessful()) {
+                    throw new IOException("Upload response code: " + response.code());
+                }
+                return ackTime;
+            }
+        } finally {
+            tracker.untrack(handle);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
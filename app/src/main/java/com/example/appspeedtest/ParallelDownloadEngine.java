@@ -0,0 +1,201 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-connection download engine.
+ * Opens a number of concurrent streams on a bounded executor and adds the
+ * bytes from all of them into one shared counter, so a single TCP flow no
+ * longer caps the measured speed. A stream whose response ends before the
+ * deadline opens a follow-up request, so the pipe stays full.
+ */
+public class ParallelDownloadEngine {
+
+    private static final String TAG = "ParallelDownloadEngine";
+
+    // Extra time given to the streams after the deadline before they are force-closed
+    private static final long SHUTDOWN_GRACE_MS = 2000;
+
+    /**
+     * Opens one download stream. Closing the returned stream must release
+     * the underlying connection.
+     */
+    public interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    private final StreamOpener opener;
+    private final int streamCount;
+    private final long durationMs;
+    private final MeasurementCore core;
+    private LiveSampleReporter reporter;
+    private AdaptiveStopRule stopRule;
+
+    public ParallelDownloadEngine(StreamOpener opener, int streamCount, long durationMs) {
+        this(opener, streamCount, durationMs, MeasurementCore.getDefault());
+    }
+
+    public ParallelDownloadEngine(StreamOpener opener, int streamCount, long durationMs, MeasurementCore core) {
+        this.opener = opener;
+        this.streamCount = Math.max(1, Math.min(streamCount, MeasurementCore.MAX_STREAMS));
+        this.durationMs = durationMs;
+        this.core = core;
+    }
+
+    /**
+     * Streams live samples of this run to the reporter (optional)
+     */
+    public void setSampleReporter(LiveSampleReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Ends the run early once the throughput converges (optional); durationMs stays the upper limit
+     */
+    public void setStopRule(AdaptiveStopRule stopRule) {
+        this.stopRule = stopRule;
+    }
+
+    /**
+     * Runs all streams until the test duration elapses and returns the aggregate result
+     */
+    public SpeedTestManager.DownloadResult run() {
+        ExecutorService executor = Executors.newFixedThreadPool(streamCount);
+        ThroughputEstimator estimator = new ThroughputEstimator(
+                ThroughputEstimator.DEFAULT_BUCKET_MS, durationMs + ThroughputEstimator.DEFAULT_BUCKET_MS);
+        AtomicReferenceArray<InputStream> openStreams = new AtomicReferenceArray<>(streamCount);
+        MeasurementCore.Span[] spans = new MeasurementCore.Span[streamCount];
+        if (reporter != null) {
+            reporter.startPhase(LiveSampleReporter.PHASE_DOWNLOAD, estimator);
+        }
+
+        Log.d(TAG, "Starting download with " + streamCount + " stream(s) for " + durationMs + " ms");
+
+        long startNanos = MeasurementCore.nanoTime();
+        MeasurementCore.Deadline deadline = new MeasurementCore.Deadline(startNanos + durationMs * 1_000_000);
+        AdaptiveStopRule.Watch watch = stopRule != null ? stopRule.watch(estimator, deadline, startNanos) : null;
+
+        List<Future<?>> futures = new ArrayList<>(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            final int index = i;
+            spans[i] = new MeasurementCore.Span();
+            futures.add(executor.submit(() -> {
+                runStream(index, deadline, estimator, openStreams, spans[index]);
+                return null;
+            }));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                long remainingMs = (deadline.nanos() - MeasurementCore.nanoTime()) / 1_000_000 + SHUTDOWN_GRACE_MS;
+                try {
+                    futures.get(i).get(Math.max(remainingMs, 0), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Stream " + (i + 1) + " failed: " + e.getCause());
+                } catch (TimeoutException e) {
+                    Log.e(TAG, "Stream " + (i + 1) + " did not finish in time, closing it");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watch != null) {
+                watch.stop();
+            }
+            // Unblock any stream still stuck in read()
+            for (int i = 0; i < streamCount; i++) {
+                closeQuietly(openStreams.getAndSet(i, null));
+            }
+            executor.shutdownNow();
+            if (reporter != null) {
+                reporter.endPhase();
+            }
+        }
+
+        long elapsed = (Math.min(MeasurementCore.nanoTime(), deadline.nanos()) - startNanos) / 1_000_000;
+
+        SpeedTestManager.DownloadResult result = new SpeedTestManager.DownloadResult(streamCount);
+        result.totalBytes = estimator.getTotalBytes();
+        result.durationMs = elapsed;
+        result.averageMbps = MeasurementCore.toMbps(result.totalBytes, elapsed);
+        applyEstimate(result, estimator.estimate());
+        for (int i = 0; i < streamCount; i++) {
+            result.streamBytes[i] = spans[i].bytes;
+            result.streamSpeedsMbps[i] = MeasurementCore.toMbps(spans[i].bytes, spans[i].durationMs());
+        }
+        result.stoppedEarly = deadline.wasPulledIn();
+        result.savedMs = AdaptiveStopRule.savedMs(deadline);
+        result.savedBytes = AdaptiveStopRule.savedBytes(result.speedMbps, result.savedMs);
+
+        Log.d(TAG, "Download: " + result.totalBytes + " bytes in " + elapsed + " ms over "
+                + streamCount + " stream(s) = " + result.speedMbps + " Mbps (ramp-up "
+                + result.rampUpMs + " ms excluded"
+                + (result.stoppedEarly ? ", stopped early saving " + result.savedMs + " ms" : "") + ")");
+        return result;
+    }
+
+    private void runStream(int index, MeasurementCore.Deadline deadline, ThroughputEstimator estimator,
+                           AtomicReferenceArray<InputStream> openStreams,
+                           MeasurementCore.Span span) throws IOException {
+        MeasurementCore.Span request = new MeasurementCore.Span();
+        boolean first = true;
+
+        while (MeasurementCore.nanoTime() < deadline.nanos()) {
+            InputStream inputStream = opener.open();
+            openStreams.set(index, inputStream);
+
+            request.bytes = 0;
+            try {
+                core.read(inputStream, deadline, estimator, request);
+            } catch (IOException e) {
+                // Expected when the stream is force-closed at the deadline
+                if (MeasurementCore.nanoTime() < deadline.nanos()) {
+                    throw e;
+                }
+            } finally {
+                closeQuietly(openStreams.getAndSet(index, null));
+                if (first) {
+                    // Timed from the first read of the first request, like a single stream
+                    span.startNanos = request.startNanos;
+                    first = false;
+                }
+                span.bytes += request.bytes;
+                span.endNanos = request.endNanos;
+            }
+
+            if (request.bytes == 0) {
+                // Empty response - do not spin on it
+                break;
+            }
+        }
+    }
+
+    private static void applyEstimate(SpeedTestManager.DownloadResult result, ThroughputEstimator.Estimate estimate) {
+        // Fall back to the whole-window average when the transfer was too short to estimate
+        result.speedMbps = estimate.stableMs > 0 ? estimate.meanMbps : result.averageMbps;
+        result.peakMbps = estimate.peakMbps;
+        result.p90Mbps = estimate.p90Mbps;
+        result.rampUpMs = estimate.rampUpMs;
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        if (inputStream == null) return;
+        try {
+            inputStream.close();
+        } catch (Exception e) {
+            // Ignore - the stream is being torn down
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-connection upload engine.
+ * Runs a number of concurrent POST streams against one deadline. The bytes each
+ * stream hands to its socket feed one shared estimator, but the socket buffer
+ * accepts them ahead of the link, so the window closes with the last server
+ * acknowledgement rather than the last write. A stream whose body ends before the
+ * deadline posts again.
+ */
+public class ParallelUploadEngine {
+
+    private static final String TAG = "ParallelUploadEngine";
+
+    // Extra time given to the streams after the deadline to receive their responses. A send
+    // buffer of a few MB, as Android autotunes them, takes seconds to drain on a slow link.
+    private static final long ACK_GRACE_MS = 10000;
+    // How long aborted streams get to wind down before the result is built
+    private static final long ABORT_WAIT_MS = 1000;
+
+    /**
+     * Sends one upload request with the given body; returns the MeasurementCore.nanoTime()
+     * at which the server acknowledged it
+     */
+    public interface StreamUploader {
+        long upload(StreamingUploadEngine body) throws IOException;
+    }
+
+    private final StreamUploader uploader;
+    private final int streamCount;
+    private final long durationMs;
+    private final MeasurementCore core;
+    private LiveSampleReporter reporter;
+    private AdaptiveStopRule stopRule;
+
+    public ParallelUploadEngine(StreamUploader uploader, int streamCount, long durationMs) {
+        this(uploader, streamCount, durationMs, MeasurementCore.getDefault());
+    }
+
+    public ParallelUploadEngine(StreamUploader uploader, int streamCount, long durationMs, MeasurementCore core) {
+        this.uploader = uploader;
+        this.streamCount = Math.max(1, Math.min(streamCount, MeasurementCore.MAX_STREAMS));
+        this.durationMs = durationMs;
+        this.core = core;
+    }
+
+    /**
+     * Streams live samples of this run to the reporter (optional)
+     */
+    public void setSampleReporter(LiveSampleReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Ends the run early once the throughput converges (optional); durationMs stays the upper limit
+     */
+    public void setStopRule(AdaptiveStopRule stopRule) {
+        this.stopRule = stopRule;
+    }
+
+    /**
+     * Runs all streams until the test duration elapses and returns the aggregate result
+     */
+    public SpeedTestManager.UploadResult run() {
+        ExecutorService executor = Executors.newFixedThreadPool(streamCount);
+        ThroughputEstimator estimator = new ThroughputEstimator(
+                ThroughputEstimator.DEFAULT_BUCKET_MS, durationMs + ThroughputEstimator.DEFAULT_BUCKET_MS);
+        MeasurementCore.Span[] spans = new MeasurementCore.Span[streamCount];
+        long[] ackNanos = new long[streamCount];
+        AtomicReferenceArray<StreamingUploadEngine> openBodies = new AtomicReferenceArray<>(streamCount);
+        if (reporter != null) {
+            reporter.startPhase(LiveSampleReporter.PHASE_UPLOAD, estimator);
+        }
+
+        Log.d(TAG, "Starting upload with " + streamCount + " stream(s) for " + durationMs + " ms");
+
+        long startNanos = MeasurementCore.nanoTime();
+        MeasurementCore.Deadline deadline = new MeasurementCore.Deadline(startNanos + durationMs * 1_000_000);
+        AdaptiveStopRule.Watch watch = stopRule != null ? stopRule.watch(estimator, deadline, startNanos) : null;
+
+        List<Future<?>> futures = new ArrayList<>(streamCount);
+        for (int i = 0; i < streamCount; i++) {
+            final int index = i;
+            spans[i] = new MeasurementCore.Span();
+            futures.add(executor.submit(() -> {
+                runStream(index, deadline, estimator, openBodies, spans[index], ackNanos);
+                return null;
+            }));
+        }
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                long remainingMs = (deadline.nanos() - MeasurementCore.nanoTime()) / 1_000_000 + ACK_GRACE_MS;
+                try {
+                    futures.get(i).get(Math.max(remainingMs, 0), TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Stream " + (i + 1) + " failed: " + e.getCause());
+                } catch (TimeoutException e) {
+                    Log.e(TAG, "Stream " + (i + 1) + " got no response in time, aborting it");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (watch != null) {
+                watch.stop();
+            }
+            // Abort any request still waiting for its response, so none outlives the phase
+            for (int i = 0; i < streamCount; i++) {
+                StreamingUploadEngine body = openBodies.getAndSet(i, null);
+                if (body != null) {
+                    body.abort();
+                }
+            }
+            executor.shutdownNow();
+            try {
+                // Let the aborted streams record their spans
+                executor.awaitTermination(ABORT_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (reporter != null) {
+                reporter.endPhase();
+            }
+        }
+
+        // Written bytes are only known to be sent once the server has acknowledged them; a
+        // stream that got no acknowledgement is given until the run stopped waiting for it
+        long giveUpNanos = MeasurementCore.nanoTime();
+        long[] streamEndNanos = new long[streamCount];
+        long endNanos = startNanos;
+        for (int i = 0; i < streamCount; i++) {
+            streamEndNanos[i] = ackNanos[i] > 0 ? Math.max(spans[i].endNanos, ackNanos[i]) : giveUpNanos;
+            endNanos = Math.max(endNanos, streamEndNanos[i]);
+        }
+        long elapsed = (endNanos - startNanos) / 1_000_000;
+
+        SpeedTestManager.UploadResult result = new SpeedTestManager.UploadResult();
+        result.totalBytes = estimator.getTotalBytes();
+        result.durationMs = elapsed;
+        result.averageMbps = MeasurementCore.toMbps(result.totalBytes, elapsed);
+        ThroughputEstimator.Estimate estimate = estimator.estimate();
+        // The write times only show how fast the socket buffers took the bytes - with a large
+        // buffer the stable-phase estimate runs far ahead of the link - so the reported rate
+        // is the acknowledged window's average
+        result.speedMbps = result.averageMbps;
+        result.peakMbps = estimate.peakMbps;
+        result.p90Mbps = estimate.p90Mbps;
+        result.streamBytes = new long[streamCount];
+        result.streamSpeedsMbps = new double[streamCount];
+        for (int i = 0; i < streamCount; i++) {
+            result.streamBytes[i] = spans[i].bytes;
+            result.streamSpeedsMbps[i] = MeasurementCore.toMbps(spans[i].bytes,
+                    (streamEndNanos[i] - spans[i].startNanos) / 1_000_000);
+        }
+        result.stoppedEarly = deadline.wasPulledIn();
+        result.savedMs = AdaptiveStopRule.savedMs(deadline);
+        result.savedBytes = AdaptiveStopRule.savedBytes(result.speedMbps, result.savedMs);
+
+        Log.d(TAG, "Upload: " + result.totalBytes + " bytes in " + elapsed + " ms to the last acknowledgement over "
+                + streamCount + " stream(s) = " + result.speedMbps + " Mbps"
+                + (result.stoppedEarly ? " (stopped early saving " + result.savedMs + " ms)" : ""));
+        return result;
+    }
+
+    private void runStream(int index, MeasurementCore.Deadline deadline, ThroughputEstimator estimator,
+                           AtomicReferenceArray<StreamingUploadEngine> openBodies,
+                           MeasurementCore.Span span, long[] ackNanos) throws IOException {
+        boolean first = true;
+
+        while (MeasurementCore.nanoTime() < deadline.nanos()) {
+            StreamingUploadEngine body = new StreamingUploadEngine(deadline, estimator, core);
+            MeasurementCore.Span request = body.getSpan();
+            openBodies.set(index, body);
+            try {
+                ackNanos[index] = uploader.upload(body);
+            } finally {
+                openBodies.compareAndSet(index, body, null);
+                if (request.startNanos > 0) {
+                    if (first) {
+                        // Timed from the first write of the first request, like a single stream
+                        span.startNanos = request.startNanos;
+                        first = false;
+                    }
+                    span.bytes += request.bytes;
+                    span.endNanos = request.endNanos;
+                }
+            }
+
+            if (request.bytes == 0) {
+                // Nothing could be sent - do not spin on it
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Probe-then-scale request planner.
+ * Runs a small probe transfer (growing it until it lasts long enough to time),
+ * estimates the link rate and sizes the follow-up requests and their
+ * concurrency so the pipe stays full for the whole test duration: a slow
+ * phone is not asked for 25 MB it will never finish, and a fast link does
+ * not drain its payload in a fraction of a second and sit idle.
+ */
+public class RequestPlanner {
+
+    private static final String TAG = "RequestPlanner";
+
+    // Probe sizes grow by PROBE_GROWTH until a probe takes at least MIN_PROBE_MS
+    private static final long FIRST_PROBE_BYTES = 256 * 1024;
+    private static final long MAX_DOWNLOAD_PROBE_BYTES = 16 * 1024 * 1024;
+    private static final long MAX_UPLOAD_PROBE_BYTES = 4 * 1024 * 1024;
+    private static final int PROBE_GROWTH = 8;
+    private static final long MIN_PROBE_MS = 300;
+    private static final long PROBE_TIMEOUT_MS = 5000;
+
+    // Rate a single TCP flow typically sustains; faster links get more streams
+    private static final double PER_STREAM_MBPS = 25;
+    // Requests are sized for more than the duration so they do not run dry if the rate climbs after the probe
+    private static final double HEADROOM = 1.5;
+    public static final long MIN_REQUEST_BYTES = 256 * 1024;
+    public static final long MAX_REQUEST_BYTES = 100_000_000;
+
+    /**
+     * Opens a download of the given size; closing the stream releases the connection
+     */
+    public interface SizedOpener {
+        InputStream open(long bytes) throws IOException;
+    }
+
+    /**
+     * Uploads the given number of bytes and returns the measured Mbps
+     */
+    public interface UploadProbe {
+        double measureMbps(long bytes) throws IOException;
+    }
+
+    private final MeasurementCore core;
+
+    public RequestPlanner() {
+        this(MeasurementCore.getDefault());
+    }
+
+    public RequestPlanner(MeasurementCore core) {
+        this.core = core;
+    }
+
+    /**
+     * Probes the download rate and plans requests for durationMs.
+     * Returns null if the probe failed, so the caller can fall back to its defaults.
+     */
+    public Plan planDownload(SizedOpener opener, long durationMs, int minStreams, int maxStreams) {
+        double mbps = -1;
+        long bytes = FIRST_PROBE_BYTES;
+        try {
+            while (true) {
+                MeasurementCore.Span span = new MeasurementCore.Span();
+                long deadlineNanos = MeasurementCore.nanoTime() + PROBE_TIMEOUT_MS * 1_000_000;
+                InputStream inputStream = opener.open(bytes);
+                try {
+                    // Timed from the first read, so connection setup and TTFB are left out
+                    core.read(inputStream, new MeasurementCore.Deadline(deadlineNanos),
+                            new ThroughputEstimator(ThroughputEstimator.DEFAULT_BUCKET_MS, PROBE_TIMEOUT_MS), span);
+                } finally {
+                    inputStream.close();
+                }
+
+                long probeMs = span.durationMs();
+                if (probeMs > 0) {
+                    mbps = MeasurementCore.toMbps(span.bytes, probeMs);
+                }
+                if (probeMs >= MIN_PROBE_MS || span.bytes < bytes || bytes >= MAX_DOWNLOAD_PROBE_BYTES) {
+                    break;
+                }
+                bytes = Math.min(bytes * PROBE_GROWTH, MAX_DOWNLOAD_PROBE_BYTES);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Download probe error: " + e.getMessage());
+        }
+
+        if (mbps <= 0) {
+            return null;
+        }
+        Plan plan = plan(mbps, durationMs, minStreams, maxStreams);
+        Log.d(TAG, "Download plan: probe " + mbps + " Mbps -> " + plan.streams + " x "
+                + plan.bytesPerRequest + " bytes");
+        return plan;
+    }
+
+    /**
+     * Probes the upload rate and plans one request for durationMs. Returns null if the probe failed.
+     */
+    public Plan planUpload(UploadProbe probe, long durationMs) {
+        double mbps = -1;
+        long bytes = FIRST_PROBE_BYTES;
+        try {
+            while (true) {
+                long startNanos = MeasurementCore.nanoTime();
+                mbps = probe.measureMbps(bytes);
+                long probeMs = (MeasurementCore.nanoTime() - startNanos) / 1_000_000;
+                if (mbps <= 0 || probeMs >= MIN_PROBE_MS || bytes >= MAX_UPLOAD_PROBE_BYTES) {
+                    break;
+                }
+                bytes = Math.min(bytes * PROBE_GROWTH, MAX_UPLOAD_PROBE_BYTES);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Upload probe error: " + e.getMessage());
+        }
+
+        if (mbps <= 0) {
+            return null;
+        }
+        Plan plan = plan(mbps, durationMs, 1, 1);
+        Log.d(TAG, "Upload plan: probe " + mbps + " Mbps -> " + plan.bytesPerRequest + " bytes");
+        return plan;
+    }
+
+    /**
+     * Sizes requests for the given rate; the stream count is clamped to [minStreams, maxStreams]
+     */
+    public static Plan plan(double mbps, long durationMs, int minStreams, int maxStreams) {
+        Plan plan = new Plan();
+        plan.probeMbps = mbps;
+        int wanted = (int) Math.ceil(mbps / PER_STREAM_MBPS);
+        plan.streams = Math.max(minStreams, Math.min(wanted, maxStreams));
+
+        double totalBytes = mbps * 1_000_000 / 8 * durationMs / 1000.0 * HEADROOM;
+        long perRequest = (long) (totalBytes / plan.streams);
+        plan.bytesPerRequest = Math.max(MIN_REQUEST_BYTES, Math.min(perRequest, MAX_REQUEST_BYTES));
+        return plan;
+    }
+
+    /**
+     * Request sizes and concurrency chosen for one phase
+     */
+    public static class Plan {
+        public double probeMbps;
+        public int streams;
+        public long bytesPerRequest;
+    }
+}
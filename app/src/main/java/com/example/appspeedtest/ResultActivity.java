@@ -2,10 +2,6 @@ package com.example.appspeedtest;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import android.content.Context;
-import android.net.ConnectivityManager;
-import android.net.NetworkCapabilities;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
@@ -14,6 +10,11 @@ import android.widget.LinearLayout;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 public class ResultActivity extends AppCompatActivity {
 
     TextView resultText, pingValue, downloadValue, uploadValue, qualityRating, testInfo, jitterValue;
@@ -22,6 +23,20 @@ public class ResultActivity extends AppCompatActivity {
     Button retryButton, backButton;
     ImageView serviceIcon;
     String service, domain, testType;
+    // General test only: also load both directions at once
+    boolean duplex;
+    SpeedTestPipeline pipeline;
+
+    // Time boxes per phase - generous, since each phase already bounds its own duration
+    private static final long DNS_STEP_TIMEOUT_MS = TimedDns.PRE_RESOLVE_TIMEOUT_MS + 2000;
+    private static final long SERVER_STEP_TIMEOUT_MS = 5000;
+    private static final long TRANSPORT_STEP_TIMEOUT_MS = 8000;
+    private static final long PING_STEP_TIMEOUT_MS = 15000;
+    private static final long DOWNLOAD_STEP_TIMEOUT_MS = 30000;
+    private static final long SERVICE_STEP_TIMEOUT_MS = SpeedTestManager.RESOLVE_TIMEOUT_MS + 20000;
+    private static final long UPLOAD_STEP_TIMEOUT_MS = 30000;
+    // Two isolated baselines and the duplex window itself, plus the uploads' acknowledgements
+    private static final long DUPLEX_STEP_TIMEOUT_MS = 60000;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -46,6 +61,7 @@ public class ResultActivity extends AppCompatActivity {
         service = getIntent().getStringExtra("service");
         domain = getIntent().getStringExtra("domain");
         testType = getIntent().getStringExtra("testType"); // "content" or "general"
+        duplex = getIntent().getBooleanExtra("duplex", false);
 
         // Set service icon based on selected service
         if ("general".equals(testType)) {
@@ -62,7 +78,7 @@ public class ResultActivity extends AppCompatActivity {
         }
 
         // Show network type
-        testInfo.setText("Testing on " + getNetworkType());
+        testInfo.setText("Testing on " + Utils.getNetworkType(this));
         testInfo.setVisibility(View.VISIBLE);
 
         resultText.setText("Preparing to test " + service + "...\nPlease wait...");
@@ -74,11 +90,20 @@ public class ResultActivity extends AppCompatActivity {
             detailedResultsContainer.setVisibility(View.GONE);
             progressBar.setVisibility(View.VISIBLE);
             resultText.setText("Restarting test...");
-            new SpeedTestTask().execute();
+            startSpeedTest();
         });
 
         // Start the test
-        new SpeedTestTask().execute();
+        startSpeedTest();
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Stop the test (and its network I/O) when the user leaves
+        if (pipeline != null) {
+            pipeline.cancel();
+        }
+        super.onDestroy();
     }
 
     private void setServiceIcon(String service) {
@@ -101,169 +126,399 @@ public class ResultActivity extends AppCompatActivity {
         }
     }
 
-    private String getNetworkType() {
-        ConnectivityManager cm = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (cm != null) {
-            NetworkCapabilities capabilities = cm.getNetworkCapabilities(cm.getActiveNetwork());
-            if (capabilities != null) {
-                if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
-                    return "WiFi";
-                } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
-                    return "Mobile Data";
-                } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
-                    return "Ethernet";
-                }
+    private void startSpeedTest() {
+        // Abort a test that is still running so two tests never compete for bandwidth
+        if (pipeline != null) {
+            pipeline.cancel();
+        }
+
+        SpeedTestManager stm = new SpeedTestManager();
+        TestResult result = new TestResult();
+        SpeedTestPipeline testPipeline = new SpeedTestPipeline(stm);
+        pipeline = testPipeline;
+
+        // Live samples arrive coalesced on the main thread while each phase runs
+        stm.setSampleListener(sample -> {
+            result.record(sample);
+            showLiveSample(sample);
+        }, testPipeline::post);
+
+        boolean isGeneralTest = "general".equals(testType);
+        String testDomain = domain;
+        List<TestServer> servers = isGeneralTest ? TestServer.fromResources(this) : new ArrayList<>();
+        ServiceCatalog catalog = isGeneralTest ? null : ServiceCatalog.fromResources(this);
+
+        // Resolve every host this run will touch in parallel, so no phase pays for DNS
+        List<String> dnsHosts = new ArrayList<>();
+        if (isGeneralTest) {
+            for (TestServer server : servers) {
+                dnsHosts.add(server.getProbeTarget());
             }
+        } else {
+            dnsHosts.add(testDomain);
+            dnsHosts.addAll(catalog.getUrls(service));
+            dnsHosts.addAll(catalog.getPages(service));
+            dnsHosts.add(TestServer.CLOUDFLARE.getProbeTarget());
+        }
+        testPipeline.addStep("dns", DNS_STEP_TIMEOUT_MS, () -> result.dns = stm.preResolve(dnsHosts));
+
+        if (isGeneralTest) {
+            stm.setServers(servers);
+            String networkKey = Utils.getNetworkKey(this);
+            testPipeline.addStep("server", SERVER_STEP_TIMEOUT_MS, () -> {
+                // Race the configured servers; the throughput phases go to the fastest
+                result.server = stm.selectServer(networkKey);
+            });
         }
-        return "Unknown Network";
-    }
 
-    private class SpeedTestTask extends AsyncTask<Void, TestProgress, TestResult> {
-
-        @Override
-        protected TestResult doInBackground(Void... voids) {
-            SpeedTestManager stm = new SpeedTestManager();
-            TestResult result = new TestResult();
-
-            boolean isGeneralTest = "general".equals(testType);
-            String testDomain = isGeneralTest ? "speed.cloudflare.com" : domain;
-
-            try {
-                // Test ping/latency
-                publishProgress(new TestProgress("ping", "Testing connection latency..."));
-                Thread.sleep(500);
-
-                if (isGeneralTest) {
-                    // For general test, get detailed latency info
-                    SpeedTestManager.LatencyResult latency = stm.testLatency(testDomain);
-                    result.ping = latency.average;
-                    result.jitter = latency.jitter;
-                    publishProgress(new TestProgress("ping", result.ping + " ms", result.ping));
-                } else {
-                    result.ping = stm.getPing(testDomain);
-                    publishProgress(new TestProgress("ping", result.ping + " ms", result.ping));
-                }
+        testPipeline.addStep("transport", TRANSPORT_STEP_TIMEOUT_MS, () -> {
+            // One short request picks the client backend for the whole run
+            stm.selectTransport();
+            result.transport = stm.getTransport().getName();
+        });
 
-                // Test download speed
-                publishProgress(new TestProgress("download", "Testing download speed..."));
-                Thread.sleep(500);
-
-                if (isGeneralTest) {
-                    // Use general test method with larger file
-                    result.download = stm.testGeneralDownloadSpeed();
-                } else {
-                    // Use content-specific test
-                    try {
-                        result.download = stm.testDownloadSpeedOkHttp("https://" + testDomain);
-                        if (result.download == 0) {
-                            result.download = stm.testDownloadSpeed("https://" + testDomain);
-                        }
-                    } catch (Exception e) {
-                        result.download = stm.testDownloadSpeed("https://" + testDomain);
-                    }
+        testPipeline.addStep("ping", PING_STEP_TIMEOUT_MS, () -> {
+            // Test ping/latency
+            if (isGeneralTest) {
+                // For general test, get detailed latency info from the selected server
+                String serverHost = stm.getActiveServer().getProbeTarget();
+                SpeedTestManager.LatencyResult latency = stm.testLatency(serverHost);
+                result.ping = latency.average;
+                result.jitter = latency.jitter;
+                result.dnsColdMs = latency.dnsColdMs;
+                result.dnsWarmMs = latency.dnsWarmMs;
+
+                // Keep probing while the link is loaded to measure bufferbloat
+                stm.setLoadedLatencyHost(serverHost);
+            } else {
+                result.ping = stm.getPing(testDomain);
+                TimedDns.Resolution resolution = result.dns.get(LatencyProbe.toHost(testDomain));
+                if (resolution != null) {
+                    result.dnsColdMs = resolution.coldMs;
+                    result.dnsWarmMs = resolution.warmMs;
                 }
+            }
+            publishProgress(testPipeline, new TestProgress("ping", result.ping + " ms", result.ping));
+        });
 
-                publishProgress(new TestProgress("download", String.format("%.2f", result.download) + " Mbps", result.download));
-
-                // Test upload speed
-                publishProgress(new TestProgress("upload", "Testing upload speed..."));
-                Thread.sleep(500);
-
-                if (isGeneralTest) {
-                    // Use general upload test with larger file
-                    result.upload = stm.testGeneralUploadSpeed();
-                } else {
-                    // Use standard upload test
-                    try {
-                        result.upload = stm.testUploadSpeedOkHttp();
-                        if (result.upload == 0) {
-                            result.upload = stm.testUploadSpeed();
-                        }
-                    } catch (Exception e) {
-                        result.upload = stm.testUploadSpeed();
-                    }
-                }
+        testPipeline.addStep("download", DOWNLOAD_STEP_TIMEOUT_MS, () -> {
+            // Test download speed
+            if (isGeneralTest) {
+                // Payload size and connection count are planned from a short probe transfer
+                SpeedTestManager.DownloadResult download = stm.testGeneralDownload();
+                result.download = download.speedMbps;
+                result.loadedDownloadLatency = download.loadedLatency;
+                result.savedMs += download.savedMs;
+                result.savedBytes += download.savedBytes;
+            } else {
+                // General reference figure, shown next to the service's own CDN results
+                result.download = stm.testReferenceDownloadSpeed();
+            }
+            publishProgress(testPipeline, new TestProgress("download",
+                    String.format("%.2f", result.download) + " Mbps", result.download));
+        });
 
-                publishProgress(new TestProgress("upload", String.format("%.2f", result.upload) + " Mbps", result.upload));
+        if (!isGeneralTest) {
+            testPipeline.addStep("service", SERVICE_STEP_TIMEOUT_MS, () -> {
+                // Setup, TTFB and transfer rate against the service's own CDN hosts
+                List<String> objects = stm.resolveServiceObjects(catalog, service);
+                result.service = stm.testServiceCdn(service, objects);
+            });
+        }
 
-            } catch (Exception e) {
-                e.printStackTrace();
+        testPipeline.addStep("upload", UPLOAD_STEP_TIMEOUT_MS, () -> {
+            // Test upload speed
+            if (isGeneralTest) {
+                // Use general upload test streamed for a fixed duration
+                SpeedTestManager.UploadResult upload = stm.testGeneralUpload();
+                result.upload = upload.speedMbps;
+                result.uploadStreamsMbps = upload.streamSpeedsMbps;
+                result.loadedUploadLatency = upload.loadedLatency;
+                result.savedMs += upload.savedMs;
+                result.savedBytes += upload.savedBytes;
+                result.bufferbloat = SpeedTestManager.gradeBufferbloat(result.ping,
+                        result.loadedDownloadLatency, result.loadedUploadLatency);
+            } else {
+                // Use standard upload test
+                result.upload = stm.testUploadSpeed();
             }
+            publishProgress(testPipeline, new TestProgress("upload",
+                    String.format("%.2f", result.upload) + " Mbps", result.upload));
+        });
 
-            return result;
+        if (isGeneralTest && duplex) {
+            testPipeline.addStep("duplex", DUPLEX_STEP_TIMEOUT_MS, () -> {
+                // Both directions at once, compared with each one measured alone the same way -
+                // not with the figures above, which ran with planned streams and a stop rule
+                result.duplex = stm.testDuplex();
+            });
         }
 
-        @Override
-        protected void onProgressUpdate(TestProgress... values) {
-            if (values.length > 0) {
-                TestProgress progress = values[0];
-                resultText.setText(progress.message);
-
-                // Update individual values if test is complete
-                if (progress.value >= 0) {
-                    switch (progress.testType) {
-                        case "ping":
-                            pingValue.setText(progress.displayValue);
-                            break;
-                        case "download":
-                            downloadValue.setText(progress.displayValue);
-                            break;
-                        case "upload":
-                            uploadValue.setText(progress.displayValue);
-                            break;
-                    }
+        testPipeline.start(new SpeedTestPipeline.Listener() {
+            @Override
+            public void onStepStarted(String name) {
+                switch (name) {
+                    case "dns":
+                        resultText.setText("Resolving server addresses...");
+                        break;
+                    case "server":
+                        resultText.setText("Finding the fastest test server...");
+                        break;
+                    case "transport":
+                        resultText.setText("Checking the connection...");
+                        break;
+                    case "ping":
+                        resultText.setText("Testing connection latency...");
+                        break;
+                    case "download":
+                        resultText.setText("Testing download speed...");
+                        break;
+                    case "service":
+                        resultText.setText("Testing " + service + " servers...");
+                        break;
+                    case "upload":
+                        resultText.setText("Testing upload speed...");
+                        break;
+                    case "duplex":
+                        resultText.setText("Testing each direction alone, then both at once...");
+                        break;
                 }
             }
+
+            @Override
+            public void onStepFinished(String name, boolean completed) {
+                // Values are shown through publishProgress; a failed step keeps its default
+            }
+
+            @Override
+            public void onFinished() {
+                showResult(result);
+                saveToHistory(result);
+            }
+        });
+    }
+
+    private void saveToHistory(TestResult result) {
+        ResultHistory history = ResultHistory.getInstance(this);
+        long now = System.currentTimeMillis();
+        if (result.service == null) {
+            // Same key as the background baseline, on whichever network the test ran
+            ResultHistory.Run run = newRun(now, ResultHistory.SERVICE_GENERAL);
+            run.server = result.server != null && result.server.server != null ? result.server.server.getName() : null;
+            run.pingMs = result.ping;
+            run.jitterMs = result.jitter;
+            run.downloadMbps = result.download;
+            run.uploadMbps = result.upload;
+            if (result.bufferbloat != null) {
+                run.loadedLatencyMs = Math.max(result.bufferbloat.loadedDownloadMs, result.bufferbloat.loadedUploadMs);
+                run.bufferbloat = result.bufferbloat.grade;
+            }
+            run.samples.add(result.pingSamples);
+            run.samples.add(result.downloadSamples);
+            run.samples.add(result.uploadSamples);
+            run.samples.add(result.loadedLatencySamples);
+            history.saveAsync(run);
+            return;
         }
 
-        @Override
-        protected void onPostExecute(TestResult result) {
-            progressBar.setVisibility(View.GONE);
+        // Content test: the service's own CDN figures are its row
+        ResultHistory.Run serviceRun = newRun(now, service);
+        serviceRun.pingMs = result.ping;
+        serviceRun.downloadMbps = result.service.transferMbps;
+        serviceRun.ttfbMs = result.service.ttfbMs;
+        serviceRun.samples.add(result.pingSamples);
+        history.saveAsync(serviceRun);
+
+        // The reference download and upload went to the default server, not the service
+        ResultHistory.Run reference = newRun(now, ResultHistory.SERVICE_REFERENCE);
+        reference.server = TestServer.CLOUDFLARE.getName();
+        reference.downloadMbps = result.download;
+        reference.uploadMbps = result.upload;
+        reference.samples.add(result.downloadSamples);
+        reference.samples.add(result.uploadSamples);
+        history.saveAsync(reference);
+    }
+
+    private ResultHistory.Run newRun(long timestamp, String service) {
+        ResultHistory.Run run = new ResultHistory.Run();
+        run.timestamp = timestamp;
+        run.networkType = Utils.getNetworkType(this);
+        run.isp = Utils.getISPName(this);
+        run.service = service;
+        run.testType = testType;
+        return run;
+    }
 
-            // Update all values
-            pingValue.setText(result.ping >= 0 ? result.ping + " ms" : "Failed");
-            downloadValue.setText(String.format("%.2f Mbps", result.download));
-            uploadValue.setText(String.format("%.2f Mbps", result.upload));
+    private void showLiveSample(LiveSampleReporter.LiveSample sample) {
+        switch (sample.phase) {
+            case LiveSampleReporter.PHASE_PING:
+                if (sample.latencyMs >= 0) {
+                    resultText.setText(String.format("Testing connection latency...\n%.0f ms", sample.latencyMs));
+                }
+                break;
+            case LiveSampleReporter.PHASE_DOWNLOAD:
+                resultText.setText(String.format("Testing download speed...\n%.2f Mbps", sample.throughputMbps)
+                        + formatLiveLatency(sample.latencyMs));
+                break;
+            case LiveSampleReporter.PHASE_UPLOAD:
+                resultText.setText(String.format("Testing upload speed...\n%.2f Mbps", sample.throughputMbps)
+                        + formatLiveLatency(sample.latencyMs));
+                break;
+            case LiveSampleReporter.PHASE_DUPLEX:
+                resultText.setText("Testing both directions at once..." + formatLiveLatency(sample.latencyMs));
+                break;
+        }
+    }
 
-            // Show jitter for general test
-            if ("general".equals(testType) && jitterValue != null && result.jitter >= 0) {
-                jitterValue.setText(result.jitter + " ms");
+    private String formatLiveLatency(double latencyMs) {
+        return latencyMs >= 0 ? String.format("\nLatency under load: %.0f ms", latencyMs) : "";
+    }
+
+    private void publishProgress(SpeedTestPipeline testPipeline, TestProgress progress) {
+        testPipeline.post(() -> showProgress(progress));
+    }
+
+    private void showProgress(TestProgress progress) {
+        resultText.setText(progress.message);
+
+        // Update individual values if test is complete
+        if (progress.value >= 0) {
+            switch (progress.testType) {
+                case "ping":
+                    pingValue.setText(progress.displayValue);
+                    break;
+                case "download":
+                    downloadValue.setText(progress.displayValue);
+                    break;
+                case "upload":
+                    uploadValue.setText(progress.displayValue);
+                    break;
             }
+        }
+    }
 
-            // Set quality rating
-            String quality = getQualityRating(result.download, result.ping);
-            qualityRating.setText(quality);
+    private void showResult(TestResult result) {
+        progressBar.setVisibility(View.GONE);
 
-            // Build summary text
-            StringBuilder summary = new StringBuilder();
-            summary.append("✅ Test Complete!\n\n");
-            summary.append("Test Type: ").append("general".equals(testType) ? "General Mobile Data" : service).append("\n");
-            summary.append("Network: ").append(getNetworkType()).append("\n");
+        // Update all values
+        pingValue.setText(result.ping >= 0 ? result.ping + " ms" : "Failed");
+        downloadValue.setText(String.format("%.2f Mbps", result.download));
+        uploadValue.setText(String.format("%.2f Mbps", result.upload));
 
-            if ("general".equals(testType) && result.jitter >= 0) {
-                summary.append("Jitter: ").append(result.jitter).append(" ms\n");
+        // Show jitter for general test
+        if ("general".equals(testType) && jitterValue != null && result.jitter >= 0) {
+            jitterValue.setText(result.jitter + " ms");
+        }
+
+        // Set quality rating
+        String quality = getQualityRating(result.download, result.ping);
+        qualityRating.setText(quality);
+
+        // Build summary text
+        StringBuilder summary = new StringBuilder();
+        summary.append("✅ Test Complete!\n\n");
+        summary.append("Test Type: ").append("general".equals(testType) ? "General Mobile Data" : service).append("\n");
+        summary.append("Network: ").append(Utils.getNetworkType(this)).append("\n");
+
+        if (result.server != null && result.server.server != null) {
+            summary.append("Server: ").append(result.server.server.getName());
+            if (result.server.rttMs >= 0) {
+                summary.append(" (").append(Math.round(result.server.rttMs)).append(" ms)");
+            }
+            summary.append("\n");
+        }
+        if (result.transport != null) {
+            summary.append("Client: ").append(result.transport).append("\n");
+        }
+
+        if (result.dnsColdMs >= 0) {
+            summary.append("DNS: ").append(Math.round(result.dnsColdMs)).append(" ms cold");
+            if (result.dnsWarmMs >= 0) {
+                summary.append(", ").append(Math.round(result.dnsWarmMs)).append(" ms warm");
             }
+            summary.append("\n");
+        }
 
-            resultText.setText(summary.toString());
+        if (result.uploadStreamsMbps.length > 1) {
+            summary.append("Upload streams:");
+            for (int i = 0; i < result.uploadStreamsMbps.length; i++) {
+                summary.append(i == 0 ? " " : " / ").append(String.format("%.1f", result.uploadStreamsMbps[i]));
+            }
+            summary.append(" Mbps\n");
+        }
 
-            // Show detailed results
-            detailedResultsContainer.setVisibility(View.VISIBLE);
-            retryButton.setVisibility(View.VISIBLE);
+        if (result.duplex != null) {
+            summary.append("Both directions: ")
+                    .append(formatDuplex(result.duplex.download.speedMbps, result.duplex.downloadRatio)).append(" ↓ / ")
+                    .append(formatDuplex(result.duplex.upload.speedMbps, result.duplex.uploadRatio)).append(" ↑\n");
+            LatencySampler.Stats fullLoad = result.duplex.loadedLatency;
+            summary.append("Latency under full load: ")
+                    .append(formatLatency(fullLoad != null && fullLoad.received > 0 ? Math.round(fullLoad.medianMs) : -1))
+                    .append("\n");
         }
 
-        private String getQualityRating(double downloadSpeed, long ping) {
-            if (downloadSpeed >= 25 && ping > 0 && ping < 50) {
-                return "⭐⭐⭐⭐⭐ Excellent";
-            } else if (downloadSpeed >= 10 && ping < 100) {
-                return "⭐⭐⭐⭐ Good";
-            } else if (downloadSpeed >= 5 && ping < 150) {
-                return "⭐⭐⭐ Fair";
-            } else if (downloadSpeed >= 2) {
-                return "⭐⭐ Poor";
+        if ("general".equals(testType) && result.jitter >= 0) {
+            summary.append("Jitter: ").append(result.jitter).append(" ms\n");
+        }
+
+        if (result.bufferbloat != null && !"?".equals(result.bufferbloat.grade)) {
+            summary.append("Latency under load: ")
+                    .append(formatLatency(result.bufferbloat.loadedDownloadMs)).append(" ↓ / ")
+                    .append(formatLatency(result.bufferbloat.loadedUploadMs)).append(" ↑\n");
+            summary.append("Bufferbloat: ").append(result.bufferbloat.grade)
+                    .append(" (+").append(result.bufferbloat.increaseMs).append(" ms)\n");
+        }
+
+        if (result.service != null) {
+            ServiceProbeEngine.ServiceResult cdn = result.service;
+            summary.append("General download: ").append(String.format("%.2f", result.download)).append(" Mbps\n");
+            summary.append(service).append(" CDN: ");
+            if (cdn.succeeded == 0) {
+                summary.append("unreachable\n");
             } else {
-                return "⭐ Very Poor";
+                summary.append("setup ").append(formatLatency(Math.round(cdn.setupMs)))
+                        .append(", TTFB ").append(formatLatency(Math.round(cdn.ttfbMs)));
+                if (cdn.transferMbps >= 0) {
+                    summary.append(", ").append(String.format("%.2f", cdn.transferMbps)).append(" Mbps");
+                }
+                summary.append(" (").append(cdn.succeeded).append("/").append(cdn.objects.size())
+                        .append(" objects)\n");
             }
         }
+
+        if (result.savedMs > 0) {
+            summary.append("Stopped early: saved ").append(result.savedMs / 1000.0).append(" s, ")
+                    .append(String.format("%.1f", result.savedBytes / 1_000_000.0)).append(" MB\n");
+        }
+
+        resultText.setText(summary.toString());
+
+        // Show detailed results
+        detailedResultsContainer.setVisibility(View.VISIBLE);
+        retryButton.setVisibility(View.VISIBLE);
+    }
+
+    private String formatLatency(long latencyMs) {
+        return latencyMs >= 0 ? latencyMs + " ms" : "--";
+    }
+
+    private String formatDuplex(double mbps, double ratioToIsolated) {
+        String speed = String.format("%.2f Mbps", mbps);
+        return ratioToIsolated >= 0 ? speed + String.format(" (%.0f%%)", ratioToIsolated * 100) : speed;
+    }
+
+    private String getQualityRating(double downloadSpeed, long ping) {
+        if (downloadSpeed >= 25 && ping > 0 && ping < 50) {
+            return "⭐⭐⭐⭐⭐ Excellent";
+        } else if (downloadSpeed >= 10 && ping < 100) {
+            return "⭐⭐⭐⭐ Good";
+        } else if (downloadSpeed >= 5 && ping < 150) {
+            return "⭐⭐⭐ Fair";
+        } else if (downloadSpeed >= 2) {
+            return "⭐⭐ Poor";
+        } else {
+            return "⭐ Very Poor";
+        }
     }
 
     // Helper classes for passing data
@@ -291,6 +546,51 @@ public class ResultActivity extends AppCompatActivity {
         long ping = -1;
         double download = 0;
         double upload = 0;
+        // Per-stream upload speeds of the general test
+        double[] uploadStreamsMbps = new double[0];
         long jitter = -1;
+        LatencySampler.Stats loadedDownloadLatency;
+        LatencySampler.Stats loadedUploadLatency;
+        SpeedTestManager.BufferbloatResult bufferbloat;
+        ServerSelector.Selection server;
+        // Client backend that carried the throughput phases
+        String transport;
+        // Both directions at once, null unless the duplex step ran
+        SpeedTestManager.DuplexResult duplex;
+        ServiceProbeEngine.ServiceResult service;
+        Map<String, TimedDns.Resolution> dns = new HashMap<>();
+        double dnsColdMs = -1;
+        double dnsWarmMs = -1;
+        // Time and data saved by the adaptive stop rule
+        long savedMs = 0;
+        long savedBytes = 0;
+
+        // Live samples of each phase, kept for the history
+        final ResultHistory.Samples pingSamples = new ResultHistory.Samples(LiveSampleReporter.PHASE_PING);
+        final ResultHistory.Samples downloadSamples = new ResultHistory.Samples(LiveSampleReporter.PHASE_DOWNLOAD);
+        final ResultHistory.Samples uploadSamples = new ResultHistory.Samples(LiveSampleReporter.PHASE_UPLOAD);
+        final ResultHistory.Samples loadedLatencySamples = new ResultHistory.Samples("loaded_latency");
+        private long downloadEndMs;
+
+        void record(LiveSampleReporter.LiveSample sample) {
+            switch (sample.phase) {
+                case LiveSampleReporter.PHASE_PING:
+                    // Each probe result once, not on every tick that shows it
+                    if (sample.newLatency) pingSamples.add(sample.elapsedMs, sample.latencyMs);
+                    return;
+                case LiveSampleReporter.PHASE_DOWNLOAD:
+                    downloadSamples.add(sample.elapsedMs, sample.throughputMbps);
+                    downloadEndMs = sample.elapsedMs;
+                    if (sample.newLatency) loadedLatencySamples.add(sample.elapsedMs, sample.latencyMs);
+                    return;
+                case LiveSampleReporter.PHASE_UPLOAD:
+                    uploadSamples.add(sample.elapsedMs, sample.throughputMbps);
+                    // Upload latency continues after the download on one time line
+                    if (sample.newLatency) {
+                        loadedLatencySamples.add(downloadEndMs + sample.elapsedMs, sample.latencyMs);
+                    }
+                    return;
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,384 @@
+package com.example.appspeedtest;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Persistent local history of test results.
+ * One row per run, keyed by network type, ISP, service and test type, with an
+ * index on those keys plus the time, so aggregate queries such as "median download on
+ * Wi-Fi for YouTube in the last 7 days" only touch the matching rows. Raw
+ * samples are packed into compact blobs in a separate table and are only read
+ * when asked for. Writes go through one background thread.
+ */
+public class ResultHistory extends SQLiteOpenHelper {
+
+    private static final String TAG = "ResultHistory";
+
+    private static final String DATABASE_NAME = "result_history.db";
+    private static final int DATABASE_VERSION = 6;
+
+    private static final String TABLE_RUNS = "runs";
+    private static final String TABLE_SAMPLES = "samples";
+
+    public static final String COLUMN_PING = "ping_ms";
+    public static final String COLUMN_JITTER = "jitter_ms";
+    public static final String COLUMN_DOWNLOAD = "download_mbps";
+    public static final String COLUMN_UPLOAD = "upload_mbps";
+    public static final String COLUMN_LOADED_LATENCY = "loaded_latency_ms";
+    public static final String COLUMN_TTFB = "ttfb_ms";
+    // Rate of a short, budget-capped background scan burst - not comparable with COLUMN_DOWNLOAD
+    public static final String COLUMN_BURST = "burst_mbps";
+
+    // Service key of general tests and background baselines on any network;
+    // the network itself is in network_type
+    public static final String SERVICE_GENERAL = "General";
+
+    // Service key of the generic reference-server figures measured alongside a content test,
+    // so they never mix with the service's own CDN figures
+    public static final String SERVICE_REFERENCE = "Reference";
+
+    // Metric columns callers may aggregate over
+    private static final List<String> METRIC_COLUMNS = Arrays.asList(
+            COLUMN_PING, COLUMN_JITTER, COLUMN_DOWNLOAD, COLUMN_UPLOAD, COLUMN_LOADED_LATENCY, COLUMN_TTFB,
+            COLUMN_BURST);
+
+    private static ResultHistory instance;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    public static synchronized ResultHistory getInstance(Context context) {
+        if (instance == null) {
+            instance = new ResultHistory(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ResultHistory(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        // Append-heavy: WAL keeps writes cheap and lets reads run alongside them
+        db.enableWriteAheadLogging();
+        db.setForeignKeyConstraintsEnabled(true);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_RUNS + " ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "timestamp INTEGER NOT NULL, "
+                + "network_type TEXT NOT NULL, "
+                + "isp TEXT NOT NULL, "
+                + "service TEXT NOT NULL, "
+                + "test_type TEXT NOT NULL, "
+                + "server TEXT, "
+                + COLUMN_PING + " INTEGER, "
+                + COLUMN_JITTER + " INTEGER, "
+                + COLUMN_DOWNLOAD + " REAL, "
+                + COLUMN_UPLOAD + " REAL, "
+                + COLUMN_LOADED_LATENCY + " INTEGER, "
+                + "bufferbloat TEXT, "
+                + COLUMN_TTFB + " REAL, "
+                + COLUMN_BURST + " REAL)");
+        createKeyIndex(db);
+        db.execSQL("CREATE INDEX runs_by_time ON " + TABLE_RUNS + " (timestamp)");
+
+        db.execSQL("CREATE TABLE " + TABLE_SAMPLES + " ("
+                + "run_id INTEGER NOT NULL REFERENCES " + TABLE_RUNS + "(id) ON DELETE CASCADE, "
+                + "phase TEXT NOT NULL, "
+                + "data BLOB NOT NULL, "
+                + "PRIMARY KEY (run_id, phase))");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_RUNS + " ADD COLUMN " + COLUMN_TTFB + " REAL");
+        }
+        if (oldVersion < 3) {
+            db.execSQL("DROP INDEX IF EXISTS runs_by_key");
+            createKeyIndex(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + TABLE_RUNS + " ADD COLUMN " + COLUMN_BURST + " REAL");
+            // Bursts saved so far went into the download column
+            db.execSQL("UPDATE " + TABLE_RUNS + " SET " + COLUMN_BURST + " = " + COLUMN_DOWNLOAD + ", "
+                    + COLUMN_DOWNLOAD + " = NULL WHERE test_type = 'background'");
+        }
+        if (oldVersion < 5) {
+            // General runs used to be saved under the "Mobile Data" label whatever the network
+            db.execSQL("UPDATE " + TABLE_RUNS + " SET service = '" + SERVICE_GENERAL
+                    + "' WHERE service = 'Mobile Data'");
+        }
+        if (oldVersion < 6) {
+            // Foreground runs used their own fallback label for an unidentified network
+            db.execSQL("UPDATE " + TABLE_RUNS + " SET network_type = 'Unknown' WHERE network_type = 'Unknown Network'");
+        }
+    }
+
+    private static void createKeyIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX runs_by_key ON " + TABLE_RUNS
+                + " (network_type, service, isp, test_type, timestamp)");
+    }
+
+    /**
+     * Saves the run and its samples on the background writer
+     */
+    public void saveAsync(Run run) {
+        writer.execute(() -> save(run));
+    }
+
+    /**
+     * Saves the run and its samples in one transaction; returns the run id or -1
+     */
+    public long save(Run run) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put("timestamp", run.timestamp);
+            values.put("network_type", run.networkType);
+            values.put("isp", run.isp);
+            values.put("service", run.service);
+            values.put("test_type", run.testType);
+            values.put("server", run.server);
+            putMetric(values, COLUMN_PING, run.pingMs);
+            putMetric(values, COLUMN_JITTER, run.jitterMs);
+            putMetric(values, COLUMN_DOWNLOAD, run.downloadMbps);
+            putMetric(values, COLUMN_UPLOAD, run.uploadMbps);
+            putMetric(values, COLUMN_LOADED_LATENCY, run.loadedLatencyMs);
+            values.put("bufferbloat", run.bufferbloat);
+            putMetric(values, COLUMN_TTFB, run.ttfbMs);
+            putMetric(values, COLUMN_BURST, run.burstMbps);
+            long id = db.insertOrThrow(TABLE_RUNS, null, values);
+
+            for (Samples samples : run.samples) {
+                if (samples.size() == 0) continue;
+                ContentValues sampleValues = new ContentValues();
+                sampleValues.put("run_id", id);
+                sampleValues.put("phase", samples.phase);
+                sampleValues.put("data", samples.pack());
+                db.insertOrThrow(TABLE_SAMPLES, null, sampleValues);
+            }
+
+            db.setTransactionSuccessful();
+            run.id = id;
+            return id;
+        } catch (Exception e) {
+            Log.e(TAG, "Saving run failed: " + e.getMessage());
+            e.printStackTrace();
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Median of a metric column over the matching runs since sinceMillis, or -1 if there are none.
+     * Pass null for a key that should not filter - but full tests, content tests and background
+     * bursts measure differently, so mixing test types mixes their figures. Only the matching
+     * values are read, through the (network_type, service, isp, test_type, timestamp) index.
+     */
+    public double median(String column, String networkType, String isp, String service, String testType,
+                         long sinceMillis) {
+        if (!METRIC_COLUMNS.contains(column)) {
+            throw new IllegalArgumentException("Not a metric column: " + column);
+        }
+
+        StringBuilder where = new StringBuilder(column + " IS NOT NULL AND timestamp >= ?");
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(sinceMillis));
+        if (networkType != null) {
+            where.append(" AND network_type = ?");
+            args.add(networkType);
+        }
+        if (service != null) {
+            where.append(" AND service = ?");
+            args.add(service);
+        }
+        if (isp != null) {
+            where.append(" AND isp = ?");
+            args.add(isp);
+        }
+        if (testType != null) {
+            where.append(" AND test_type = ?");
+            args.add(testType);
+        }
+        String[] selectionArgs = args.toArray(new String[0]);
+
+        SQLiteDatabase db = getReadableDatabase();
+        long count = DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM " + TABLE_RUNS + " WHERE " + where, selectionArgs);
+        if (count == 0) {
+            return -1;
+        }
+
+        // Step to the middle of the sorted values instead of loading them all
+        long offset = (count - 1) / 2;
+        int rows = count % 2 == 0 ? 2 : 1;
+        try (Cursor cursor = db.rawQuery("SELECT " + column + " FROM " + TABLE_RUNS + " WHERE " + where
+                + " ORDER BY " + column + " LIMIT " + rows + " OFFSET " + offset, selectionArgs)) {
+            double sum = 0;
+            int read = 0;
+            while (cursor.moveToNext()) {
+                sum += cursor.getDouble(0);
+                read++;
+            }
+            return read > 0 ? sum / read : -1;
+        }
+    }
+
+    /**
+     * Most recent runs, newest first, without their samples
+     */
+    public List<Run> recentRuns(int limit) {
+        List<Run> runs = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_RUNS, null, null, null, null, null,
+                "timestamp DESC", String.valueOf(limit))) {
+            while (cursor.moveToNext()) {
+                runs.add(readRun(cursor));
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * Raw samples of one phase of a run, or null if none were stored
+     */
+    public Samples loadSamples(long runId, String phase) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SAMPLES, new String[]{"data"},
+                "run_id = ? AND phase = ?", new String[]{String.valueOf(runId), phase}, null, null, null)) {
+            return cursor.moveToFirst() ? Samples.unpack(phase, cursor.getBlob(0)) : null;
+        }
+    }
+
+    private static void putMetric(ContentValues values, String column, double value) {
+        // Negative means "not measured" throughout the app
+        if (value >= 0) {
+            values.put(column, value);
+        } else {
+            values.putNull(column);
+        }
+    }
+
+    private static Run readRun(Cursor cursor) {
+        Run run = new Run();
+        run.id = cursor.getLong(cursor.getColumnIndexOrThrow("id"));
+        run.timestamp = cursor.getLong(cursor.getColumnIndexOrThrow("timestamp"));
+        run.networkType = cursor.getString(cursor.getColumnIndexOrThrow("network_type"));
+        run.isp = cursor.getString(cursor.getColumnIndexOrThrow("isp"));
+        run.service = cursor.getString(cursor.getColumnIndexOrThrow("service"));
+        run.testType = cursor.getString(cursor.getColumnIndexOrThrow("test_type"));
+        run.server = cursor.getString(cursor.getColumnIndexOrThrow("server"));
+        run.pingMs = readMetric(cursor, COLUMN_PING);
+        run.jitterMs = readMetric(cursor, COLUMN_JITTER);
+        run.downloadMbps = readMetric(cursor, COLUMN_DOWNLOAD);
+        run.uploadMbps = readMetric(cursor, COLUMN_UPLOAD);
+        run.loadedLatencyMs = readMetric(cursor, COLUMN_LOADED_LATENCY);
+        run.bufferbloat = cursor.getString(cursor.getColumnIndexOrThrow("bufferbloat"));
+        run.ttfbMs = readMetric(cursor, COLUMN_TTFB);
+        run.burstMbps = readMetric(cursor, COLUMN_BURST);
+        return run;
+    }
+
+    private static double readMetric(Cursor cursor, String column) {
+        int index = cursor.getColumnIndexOrThrow(column);
+        return cursor.isNull(index) ? -1 : cursor.getDouble(index);
+    }
+
+    /**
+     * One stored run (-1 for a metric that was not measured)
+     */
+    public static class Run {
+        public long id = -1;
+        public long timestamp;
+        public String networkType;
+        public String isp;
+        public String service;
+        public String testType;
+        public String server;
+        public double pingMs = -1;
+        public double jitterMs = -1;
+        public double downloadMbps = -1;
+        public double uploadMbps = -1;
+        public double loadedLatencyMs = -1;
+        public String bufferbloat;
+        // Time to first byte of the service's own CDN objects (content tests)
+        public double ttfbMs = -1;
+        // Background scan burst rate (background runs)
+        public double burstMbps = -1;
+        public List<Samples> samples = new ArrayList<>();
+    }
+
+    /**
+     * Raw samples of one phase, stored as packed (int elapsed ms, float value) pairs - 8 bytes each
+     */
+    public static class Samples {
+        private static final int BYTES_PER_SAMPLE = 8;
+
+        public final String phase;
+        private int[] elapsedMs = new int[64];
+        private float[] values = new float[64];
+        private int size;
+
+        public Samples(String phase) {
+            this.phase = phase;
+        }
+
+        public void add(long elapsed, double value) {
+            if (size == values.length) {
+                elapsedMs = Arrays.copyOf(elapsedMs, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            elapsedMs[size] = (int) elapsed;
+            values[size] = (float) value;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getElapsedMs(int index) {
+            return elapsedMs[index];
+        }
+
+        public double getValue(int index) {
+            return values[index];
+        }
+
+        byte[] pack() {
+            ByteBuffer buffer = ByteBuffer.allocate(size * BYTES_PER_SAMPLE).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < size; i++) {
+                buffer.putInt(elapsedMs[i]);
+                buffer.putFloat(values[i]);
+            }
+            return buffer.array();
+        }
+
+        static Samples unpack(String phase, byte[] data) {
+            Samples samples = new Samples(phase);
+            ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+            while (buffer.remaining() >= BYTES_PER_SAMPLE) {
+                samples.add(buffer.getInt(), buffer.getFloat());
+            }
+            return samples;
+        }
+    }
+}
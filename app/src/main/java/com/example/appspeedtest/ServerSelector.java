@@ -0,0 +1,142 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency-raced server selection.
+ * Probes all configured servers concurrently, ranks them by application-layer
+ * RTT and picks the fastest that answered before a short deadline. The winner
+ * is cached per network for a TTL, so repeated tests on the same network skip
+ * the race.
+ */
+public class ServerSelector {
+
+    private static final String TAG = "ServerSelector";
+
+    public static final long SELECTION_DEADLINE_MS = 2500;
+    public static final long CACHE_TTL_MS = 10 * 60 * 1000;
+
+    // The first probe also pays for DNS and may hit a cold path; the best of a few is kept
+    private static final int PROBES_PER_SERVER = 3;
+
+    // Winner per network key, shared by every selector in the process
+    private static final Map<String, Selection> cache = new ConcurrentHashMap<>();
+
+    private final LatencyProbe probe;
+
+    public ServerSelector(LatencyProbe probe) {
+        this.probe = probe;
+    }
+
+    /**
+     * Returns the fastest server for the network, from the cache if a fresh entry exists.
+     * Falls back to the first server if none answered.
+     */
+    public Selection select(List<TestServer> servers, String networkKey) {
+        Selection cached = networkKey != null ? cache.get(networkKey) : null;
+        if (cached != null && servers.contains(cached.server)
+                && MeasurementCore.nanoTime() - cached.selectedAtNanos < CACHE_TTL_MS * 1_000_000) {
+            Log.d(TAG, "Using cached server " + cached.server + " for " + networkKey);
+            Selection selection = cached.copy();
+            selection.fromCache = true;
+            return selection;
+        }
+
+        Selection selection = race(servers);
+        if (networkKey != null && selection.rttMs >= 0) {
+            cache.put(networkKey, selection);
+        }
+        return selection;
+    }
+
+    /**
+     * Forgets all cached winners, e.g. after the server configuration changed
+     */
+    public static void clearCache() {
+        cache.clear();
+    }
+
+    private Selection race(List<TestServer> servers) {
+        Selection selection = new Selection();
+        selection.selectedAtNanos = MeasurementCore.nanoTime();
+        if (servers.isEmpty()) {
+            return selection;
+        }
+        selection.server = servers.get(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(servers.size());
+        Map<TestServer, Double> rtts = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(servers.size());
+
+        for (TestServer server : servers) {
+            executor.execute(() -> {
+                double best = -1;
+                for (int i = 0; i < PROBES_PER_SERVER && !Thread.currentThread().isInterrupted(); i++) {
+                    LatencyProbe.Timing timing = probe.probe(server.getProbeTarget());
+                    if (!timing.success) break;
+                    best = best < 0 ? timing.rttMs() : Math.min(best, timing.rttMs());
+                    if (!Thread.currentThread().isInterrupted()) {
+                        // Publish after every probe so a server cut off by the deadline still ranks
+                        rtts.put(server, best);
+                    }
+                }
+                done.countDown();
+            });
+        }
+
+        try {
+            done.await(SELECTION_DEADLINE_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Map.Entry<TestServer, Double>> ranked = new ArrayList<>(rtts.entrySet());
+        Collections.sort(ranked, (a, b) -> Double.compare(a.getValue(), b.getValue()));
+        for (Map.Entry<TestServer, Double> entry : ranked) {
+            selection.rttByServer.put(entry.getKey().getName(), entry.getValue());
+        }
+        if (!ranked.isEmpty()) {
+            selection.server = ranked.get(0).getKey();
+            selection.rttMs = ranked.get(0).getValue();
+        }
+
+        Log.d(TAG, "Server ranking: " + selection.rttByServer + " -> " + selection.server);
+        return selection;
+    }
+
+    /**
+     * Outcome of one selection
+     */
+    public static class Selection {
+        public TestServer server;
+        // RTT of the chosen server, -1 if no server answered
+        public double rttMs = -1;
+        public boolean fromCache;
+        // Servers that answered, fastest first
+        public Map<String, Double> rttByServer = new LinkedHashMap<>();
+        long selectedAtNanos;
+
+        Selection copy() {
+            Selection copy = new Selection();
+            copy.server = server;
+            copy.rttMs = rttMs;
+            copy.fromCache = fromCache;
+            copy.rttByServer = new LinkedHashMap<>(rttByServer);
+            copy.selectedAtNanos = selectedAtNanos;
+            return copy;
+        }
+    }
+}
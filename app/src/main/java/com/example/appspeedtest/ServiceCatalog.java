@@ -0,0 +1,104 @@
+package com.example.appspeedtest;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Representative objects per service, served from that service's own CDN hosts.
+ * Loaded from the service_catalog configuration: "service|url" names a stable object,
+ * "service|page|url" a page whose static assets on other hosts (the service's CDN) are
+ * taken as objects at run time, since their content-hashed names change with every release.
+ */
+public class ServiceCatalog {
+
+    private static final String TAG = "ServiceCatalog";
+
+    private static final String PAGE = "page";
+
+    // Absolute urls of static assets as they appear in HTML, CSS or inline JSON
+    private static final Pattern ASSET_URL = Pattern.compile(
+            "https?://[^\\s\"'<>()\\\\]+?\\.(?:js|css|png|jpe?g|webp|gif|woff2?)(?:\\?[^\\s\"'<>()\\\\]*)?"
+                    + "(?=[\\s\"'<>()\\\\]|$)");
+
+    private final Map<String, List<String>> urlsByService = new LinkedHashMap<>();
+    private final Map<String, List<String>> pagesByService = new LinkedHashMap<>();
+    private final Set<String> services = new LinkedHashSet<>();
+
+    /**
+     * Parses "service|url" and "service|page|url" entries, skipping malformed ones
+     */
+    public ServiceCatalog(String[] entries) {
+        for (String entry : entries) {
+            String[] parts = entry.split("\\|", -1);
+            boolean page = parts.length == 3 && PAGE.equals(parts[1].trim());
+            if ((parts.length != 2 && !page) || parts[0].trim().isEmpty()
+                    || !parts[parts.length - 1].trim().startsWith("http")) {
+                Log.e(TAG, "Ignoring malformed catalog entry: " + entry);
+                continue;
+            }
+            String service = parts[0].trim();
+            services.add(service);
+            Map<String, List<String>> target = page ? pagesByService : urlsByService;
+            List<String> urls = target.get(service);
+            if (urls == null) {
+                urls = new ArrayList<>();
+                target.put(service, urls);
+            }
+            urls.add(parts[parts.length - 1].trim());
+        }
+    }
+
+    /**
+     * Loads the catalog from R.array.service_catalog
+     */
+    public static ServiceCatalog fromResources(Context context) {
+        return new ServiceCatalog(context.getResources().getStringArray(R.array.service_catalog));
+    }
+
+    /**
+     * Stable object urls for the service, empty if it has none
+     */
+    public List<String> getUrls(String service) {
+        List<String> urls = urlsByService.get(service);
+        return urls != null ? Collections.unmodifiableList(urls) : Collections.<String>emptyList();
+    }
+
+    /**
+     * Pages whose assets stand in for the service's objects, empty if it has none
+     */
+    public List<String> getPages(String service) {
+        List<String> pages = pagesByService.get(service);
+        return pages != null ? Collections.unmodifiableList(pages) : Collections.<String>emptyList();
+    }
+
+    public List<String> getServices() {
+        return new ArrayList<>(services);
+    }
+
+    /**
+     * Static assets the page references on hosts other than its own, in page order
+     */
+    static List<String> findAssetUrls(String pageUrl, String body) {
+        String pageHost = LatencyProbe.toHost(pageUrl);
+        Set<String> assets = new LinkedHashSet<>();
+        // Inline JSON escapes the slashes, HTML attributes the ampersands
+        Matcher matcher = ASSET_URL.matcher(body.replace("\\/", "/").replace("&amp;", "&"));
+        while (matcher.find()) {
+            String url = matcher.group();
+            if (!LatencyProbe.toHost(url).equalsIgnoreCase(pageHost)) {
+                assets.add(url);
+            }
+        }
+        return new ArrayList<>(assets);
+    }
+}
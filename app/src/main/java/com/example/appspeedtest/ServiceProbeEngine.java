@@ -0,0 +1,174 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-service probe engine.
+ * Fetches each catalog object of a service from its own CDN on a fresh
+ * connection and records DNS, connection setup (TCP + TLS), time to first
+ * byte and the transfer rate of the body. Compared with the general figure,
+ * this shows routing and peering bottlenecks specific to the service.
+ */
+public class ServiceProbeEngine {
+
+    private static final String TAG = "ServiceProbeEngine";
+
+    public static final long DEFAULT_TRANSFER_MS = 3000;
+
+    // Bodies smaller than this finish inside the first round trips and say nothing about the rate
+    public static final long MIN_TRANSFER_BYTES = 16 * 1024;
+
+    /**
+     * Opens one catalog object. The timing is filled in while the request runs;
+     * closing the stream releases the connection.
+     */
+    public interface ObjectOpener {
+        InputStream open(String url, LatencyProbe.Timing timing) throws IOException;
+    }
+
+    private final ObjectOpener opener;
+    private final long transferMs;
+    private final MeasurementCore core;
+
+    public ServiceProbeEngine(ObjectOpener opener) {
+        this(opener, DEFAULT_TRANSFER_MS, MeasurementCore.getDefault());
+    }
+
+    /**
+     * @param transferMs longest time spent reading one object's body
+     */
+    public ServiceProbeEngine(ObjectOpener opener, long transferMs, MeasurementCore core) {
+        this.opener = opener;
+        this.transferMs = transferMs;
+        this.core = core;
+    }
+
+    /**
+     * Fetches every url in turn and returns the per-object and aggregate figures
+     */
+    public ServiceResult run(String service, List<String> urls) {
+        ServiceResult result = new ServiceResult(service);
+        for (String url : urls) {
+            if (Thread.currentThread().isInterrupted()) break;
+            result.objects.add(fetch(url));
+        }
+        result.aggregate();
+
+        // The first object is also the service's "Scan all" burst, which ranks on the fallback rate without one
+        ObjectResult first = result.objects.isEmpty() ? null : result.objects.get(0);
+        if (first != null && first.timing.success && first.bytes < MIN_TRANSFER_BYTES) {
+            Log.e(TAG, service + ": first object " + first.url + " is only " + first.bytes
+                    + " bytes, too small to give a transfer rate");
+        }
+
+        Log.d(TAG, service + ": setup " + result.setupMs + " ms, TTFB " + result.ttfbMs + " ms, transfer "
+                + result.transferMbps + " Mbps over " + result.succeeded + "/" + result.objects.size() + " objects");
+        return result;
+    }
+
+    private ObjectResult fetch(String url) {
+        ObjectResult object = new ObjectResult(url);
+        MeasurementCore.Span span = new MeasurementCore.Span();
+        try {
+            InputStream inputStream = opener.open(url, object.timing);
+            try {
+                long deadlineNanos = MeasurementCore.nanoTime() + transferMs * 1_000_000;
+                core.read(inputStream, new MeasurementCore.Deadline(deadlineNanos),
+                        new ThroughputEstimator(ThroughputEstimator.DEFAULT_BUCKET_MS, transferMs), span);
+            } finally {
+                inputStream.close();
+            }
+            object.timing.success = true;
+            object.bytes = span.bytes;
+            object.transferMs = span.durationMs();
+        } catch (Exception e) {
+            Log.e(TAG, "Fetching " + url + " failed: " + e.getMessage());
+        }
+        return object;
+    }
+
+    /**
+     * One catalog object (-1 for a value that was not measured)
+     */
+    public static class ObjectResult {
+        public final String url;
+        public final LatencyProbe.Timing timing = new LatencyProbe.Timing();
+        public long bytes;
+        public long transferMs = -1;
+
+        public ObjectResult(String url) {
+            this.url = url;
+        }
+
+        /**
+         * TCP connect plus TLS handshake
+         */
+        public double setupMs() {
+            if (timing.connectMs < 0) return -1;
+            return timing.connectMs + Math.max(timing.tlsMs, 0);
+        }
+    }
+
+    /**
+     * All objects of one service, with medians over the objects that answered
+     */
+    public static class ServiceResult {
+        public final String service;
+        public final List<ObjectResult> objects = new ArrayList<>();
+        public int succeeded;
+        public double dnsMs = -1;
+        public double setupMs = -1;
+        public double ttfbMs = -1;
+        // Body bytes over body time, for objects large enough to time
+        public double transferMbps = -1;
+        public long totalBytes;
+
+        public ServiceResult(String service) {
+            this.service = service;
+        }
+
+        void aggregate() {
+            List<Double> dns = new ArrayList<>();
+            List<Double> setup = new ArrayList<>();
+            List<Double> ttfb = new ArrayList<>();
+            long transferBytes = 0;
+            long transferTime = 0;
+
+            for (ObjectResult object : objects) {
+                if (!object.timing.success) continue;
+                succeeded++;
+                totalBytes += object.bytes;
+                if (object.timing.dnsMs >= 0) dns.add(object.timing.dnsMs);
+                if (object.setupMs() >= 0) setup.add(object.setupMs());
+                if (object.timing.ttfbMs >= 0) ttfb.add(object.timing.ttfbMs);
+                if (object.bytes >= MIN_TRANSFER_BYTES && object.transferMs > 0) {
+                    transferBytes += object.bytes;
+                    transferTime += object.transferMs;
+                }
+            }
+
+            dnsMs = median(dns);
+            setupMs = median(setup);
+            ttfbMs = median(ttfb);
+            if (transferTime > 0) {
+                transferMbps = MeasurementCore.toMbps(transferBytes, transferTime);
+            }
+        }
+
+        private static double median(List<Double> values) {
+            if (values.isEmpty()) return -1;
+            double[] sorted = new double[values.size()];
+            for (int i = 0; i < sorted.length; i++) {
+                sorted[i] = values.get(i);
+            }
+            Arrays.sort(sorted);
+            return ThroughputEstimator.percentile(sorted, 50);
+        }
+    }
+}
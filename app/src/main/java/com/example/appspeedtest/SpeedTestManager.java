@@ -2,510 +2,1104 @@ package com.example.appspeedtest;
 
 import android.util.Log;
 
-import okhttp3.MediaType;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
-import okhttp3.RequestBody;
 import okhttp3.Response;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.InetAddress;
-import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class SpeedTestManager {
 
     private static final String TAG = "SpeedTestManager";
     private static final int DOWNLOAD_TEST_DURATION_MS = 8000;
+    private static final int GENERAL_DOWNLOAD_TEST_DURATION_MS = 12000;
+    public static final int DEFAULT_DOWNLOAD_STREAMS = 4;
+    public static final int DEFAULT_UPLOAD_STREAMS = 4;
     private static final int UPLOAD_TEST_SIZE_KB = 512;
+    private static final int UPLOAD_TEST_DURATION_MS = 8000;
+    private static final int GENERAL_UPLOAD_TEST_DURATION_MS = 10000;
+    private static final int DUPLEX_TEST_DURATION_MS = 10000;
+
+    // Fallback sizes when the probe fails
+    private static final long DOWNLOAD_TEST_BYTES = 10_000_000; // 10MB
+    private static final long GENERAL_DOWNLOAD_TEST_BYTES = 25_000_000; // 25MB for general test
+    private static final int MAX_PLANNED_STREAMS = 8;
+    private static final long UPLOAD_PROBE_TIMEOUT_MS = 5000;
+    private static final long TRANSPORT_PREFLIGHT_BYTES = 1024;
+
+    // Objects kept per service, and the assets sized from each of its catalog pages
+    private static final int MAX_SERVICE_OBJECTS = 4;
+    private static final int MAX_PAGE_ASSETS = 8;
+    private static final int RESOLVE_THREADS = 6;
+    // Most bytes read from one catalog page, and the longest resolveServiceObjects() runs
+    public static final long MAX_PAGE_BYTES = 256 * 1024;
+    public static final long RESOLVE_TIMEOUT_MS = 8000;
+
+    // Used for uploads when the selected server has no upload endpoint
+    private static final String UPLOAD_TEST_URL = TestServer.CLOUDFLARE.getUploadUrl();
+
+    // Shared client so the connection pool, dispatcher threads and TLS session
+    // cache survive across test phases and repeated runs
+    private static OkHttpClient sharedClient;
+
+    private final OkHttpClient httpClient;
+    private final MeasurementCore measurementCore;
+    private final LatencyProbe latencyProbe;
+    private final RequestPlanner requestPlanner;
+    private final ServerSelector serverSelector;
+    // Caching DNS layer of the client, null if the client brings its own resolver
+    private final TimedDns dns;
+
+    // Servers raced by selectServer() (configured in res/values/test_servers.xml) and the current winner
+    private volatile List<TestServer> servers = Collections.singletonList(TestServer.CLOUDFLARE);
+    private volatile TestServer activeServer = TestServer.CLOUDFLARE;
+    // Reference download and capped upload endpoint
+    private volatile TestServer defaultServer = TestServer.CLOUDFLARE;
+
+    // Connections and calls currently doing network I/O, closed by cancel()
+    private final Set<Closeable> inFlight = ConcurrentHashMap.newKeySet();
+    private volatile boolean cancelled;
+
+    // Live samples for the UI, null when nobody listens
+    private volatile LiveSampleReporter sampleReporter;
+
+    // When set, throughput phases also probe latency to this host (loaded latency / bufferbloat)
+    private volatile String loadedLatencyHost;
+
+    // Ends throughput phases once the rate converges, null to always run the full duration
+    private volatile AdaptiveStopRule stopRule = new AdaptiveStopRule();
+
+    // Backends in order of preference, see selectTransport()
+    private final List<Transport> transports;
+    // Backend that carries every throughput phase of this run
+    private volatile Transport transport;
+
+    public SpeedTestManager() {
+        this(getSharedClient());
+    }
 
-    // Public files for download testing
-    private static final String DOWNLOAD_TEST_FILE = "https://speed.cloudflare.com/__down?bytes=10000000"; // 10MB file
-    private static final String GENERAL_DOWNLOAD_TEST = "https://speed.cloudflare.com/__down?bytes=25000000"; // 25MB for general test
-
-    // Multiple test servers for reliability
-    private static final String[] TEST_SERVERS = {
-            "https://speed.cloudflare.com/__down?bytes=",
-            "https://proof.ovh.net/files/",
-            "http://ipv4.download.thinkbroadband.com/"
-    };
+    public SpeedTestManager(OkHttpClient httpClient) {
+        this(httpClient, MeasurementCore.getDefault());
+    }
 
     /**
-     * Improved ping test using InetAddress
+     * @param measurementCore read/write loop used by all engines; its buffer size is tunable
      */
-    public long getPing(String host) {
-        try {
-            // Remove protocol if present
-            host = host.replace("https://", "").replace("http://", "").split("/")[0];
-
-            Log.d(TAG, "Testing ping for: " + host);
-
-            // Perform multiple pings and get average
-            long totalTime = 0;
-            int successfulPings = 0;
-
-            for (int i = 0; i < 3; i++) {
-                try {
-                    long start = System.currentTimeMillis();
-                    InetAddress address = InetAddress.getByName(host);
-                    boolean reachable = address.isReachable(3000);
-                    long end = System.currentTimeMillis();
-
-                    if (reachable) {
-                        long pingTime = end - start;
-                        totalTime += pingTime;
-                        successfulPings++;
-                        Log.d(TAG, "Ping " + (i+1) + ": " + pingTime + " ms");
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Ping attempt " + (i+1) + " failed: " + e.getMessage());
-                }
+    public SpeedTestManager(OkHttpClient httpClient, MeasurementCore measurementCore) {
+        this.httpClient = httpClient;
+        this.measurementCore = measurementCore;
+        this.latencyProbe = new LatencyProbe(httpClient);
+        this.requestPlanner = new RequestPlanner(measurementCore);
+        this.serverSelector = new ServerSelector(latencyProbe);
+        this.dns = httpClient.dns() instanceof TimedDns ? (TimedDns) httpClient.dns() : null;
+
+        Transport.CallTracker tracker = new Transport.CallTracker() {
+            @Override
+            public Closeable track(Closeable abort) throws IOException {
+                return SpeedTestManager.this.track(abort);
+            }
 
-                Thread.sleep(200);
+            @Override
+            public void untrack(Closeable handle) {
+                SpeedTestManager.this.untrack(handle);
             }
+        };
+        // OkHttp first: lowest CPU and allocation per byte on the upload path in MeasurementBenchmark, and
+        // on Android HttpURLConnection is itself a wrapper over an older bundled OkHttp. NIO costs the least
+        // CPU per downloaded byte but follows no redirects or proxies, so it is opt-in via setTransport()
+        // and the fallback when OkHttp fails the preflight.
+        this.transports = Collections.unmodifiableList(Arrays.asList(
+                new OkHttpTransport(httpClient, tracker),
+                new NioTransport(httpClient.dns(), tracker),
+                new HttpUrlConnectionTransport(tracker)));
+        this.transport = transports.get(0);
+    }
+
+    /**
+     * Returns the process-wide OkHttpClient used by all test phases
+     */
+    public static synchronized OkHttpClient getSharedClient() {
+        if (sharedClient == null) {
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequestsPerHost(MeasurementCore.MAX_STREAMS);
+
+            sharedClient = new OkHttpClient.Builder()
+                    .connectTimeout(10, TimeUnit.SECONDS)
+                    .writeTimeout(15, TimeUnit.SECONDS)
+                    .readTimeout(15, TimeUnit.SECONDS)
+                    .dispatcher(dispatcher)
+                    .connectionPool(new ConnectionPool(MeasurementCore.MAX_STREAMS, 5, TimeUnit.MINUTES))
+                    // Resolve each host once per run and keep DNS time out of the samples
+                    .dns(new TimedDns())
+                    // HTTP/2 would multiplex parallel streams onto one TCP flow
+                    .protocols(Collections.singletonList(Protocol.HTTP_1_1))
+                    .build();
+        }
+        return sharedClient;
+    }
+
+    /**
+     * Aborts all network I/O in flight and makes any later operation fail fast.
+     * Used when the user leaves the screen or restarts the test.
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelInFlight();
+        if (sampleReporter != null) {
+            sampleReporter.shutdown();
+        }
+    }
 
-            if (successfulPings > 0) {
-                long avgPing = totalTime / successfulPings;
-                Log.d(TAG, "Average ping: " + avgPing + " ms");
-                return avgPing;
+    /**
+     * Aborts the network I/O in flight (e.g. for a phase that ran out of time); later operations still run
+     */
+    public void cancelInFlight() {
+        for (Closeable closeable : inFlight) {
+            untrack(closeable);
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                // Ignore - the operation is being aborted
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Ping test error: " + e.getMessage());
-            e.printStackTrace();
         }
-        return -1;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
     }
 
     /**
-     * Improved download speed test using HttpURLConnection
+     * Resolves the hosts in parallel through the client's DNS cache, so later phases start
+     * with hot addresses. Returns the cold / warm resolution times per host.
      */
-    public double testDownloadSpeed(String url) {
-        HttpURLConnection connection = null;
-        InputStream inputStream = null;
+    public Map<String, TimedDns.Resolution> preResolve(Collection<String> hosts) {
+        if (dns == null) {
+            return Collections.emptyMap();
+        }
+        Set<String> hostnames = new LinkedHashSet<>();
+        for (String host : hosts) {
+            hostnames.add(hostname(host));
+        }
+        return dns.preResolve(hostnames);
+    }
 
+    /**
+     * Resolves one host through the client's DNS cache; null if it failed or DNS is not timed
+     */
+    public TimedDns.Resolution resolveHost(String host) {
+        if (dns == null) {
+            return null;
+        }
         try {
-            // Use Cloudflare's speed test endpoint for reliable testing
-            URL testUrl = new URL(DOWNLOAD_TEST_FILE);
+            return dns.measure(hostname(host));
+        } catch (UnknownHostException e) {
+            Log.e(TAG, "Could not resolve " + host);
+            return null;
+        }
+    }
 
-            Log.d(TAG, "Starting download test from: " + testUrl);
+    /**
+     * Host name of a url or domain without the scheme, path or port - what the DNS layer sees
+     */
+    private static String hostname(String host) {
+        String authority = LatencyProbe.toHost(host);
+        int colon = authority.indexOf(':');
+        // More than one colon is an IPv6 literal, not a port
+        return colon > 0 && colon == authority.lastIndexOf(':') ? authority.substring(0, colon) : authority;
+    }
 
-            connection = (HttpURLConnection) testUrl.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(15000);
-            connection.setRequestProperty("Cache-Control", "no-cache");
-            connection.connect();
+    /**
+     * Sets the servers raced by selectServer(), e.g. TestServer.fromResources(context)
+     */
+    public void setServers(List<TestServer> servers) {
+        if (!servers.isEmpty()) {
+            this.servers = new ArrayList<>(servers);
+        }
+    }
 
-            int responseCode = connection.getResponseCode();
-            Log.d(TAG, "Response code: " + responseCode);
+    /**
+     * Races the configured servers by latency and sends the general throughput phases to the winner.
+     * The winner is cached per networkKey (e.g. Utils.getNetworkKey) for ServerSelector.CACHE_TTL_MS.
+     */
+    public ServerSelector.Selection selectServer(String networkKey) {
+        ServerSelector.Selection selection = serverSelector.select(servers, networkKey);
+        if (selection.server != null) {
+            activeServer = selection.server;
+        }
+        return selection;
+    }
 
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                inputStream = connection.getInputStream();
+    public TestServer getActiveServer() {
+        return activeServer;
+    }
 
-                byte[] buffer = new byte[8192];
-                long totalBytes = 0;
-                long startTime = System.currentTimeMillis();
-                int bytesRead;
+    /**
+     * Points every phase at the given server instead of Cloudflare, e.g. an emulated link in tests.
+     * selectServer() still picks between the servers set with setServers() afterwards.
+     */
+    public void setDefaultServer(TestServer server) {
+        defaultServer = server;
+        activeServer = server;
+        servers = Collections.singletonList(server);
+    }
 
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    totalBytes += bytesRead;
-                    long currentTime = System.currentTimeMillis();
+    /**
+     * Available backends, most preferred first
+     */
+    public List<Transport> getTransports() {
+        return transports;
+    }
 
-                    // Stop after test duration
-                    if (currentTime - startTime > DOWNLOAD_TEST_DURATION_MS) {
-                        break;
-                    }
-                }
+    public Transport getTransport() {
+        return transport;
+    }
 
-                long endTime = System.currentTimeMillis();
-                double durationSec = (endTime - startTime) / 1000.0;
+    /**
+     * Carries the following phases over the given backend instead of the selected one
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
 
-                if (durationSec > 0 && totalBytes > 0) {
-                    double speedMbps = (totalBytes * 8.0) / (durationSec * 1_000_000.0);
-                    Log.d(TAG, "Download: " + totalBytes + " bytes in " + durationSec + "s = " + speedMbps + " Mbps");
-                    return speedMbps;
-                }
-            } else {
-                Log.e(TAG, "HTTP error code: " + responseCode);
+    /**
+     * Picks the backend for this run, once, before the timed phases: the first backend in order
+     * of preference that supports the active server and completes a tiny download from it.
+     * Costs one short request instead of a full timed attempt per failing backend.
+     * Keeps the current backend and returns null if none works.
+     */
+    public Transport selectTransport() {
+        TestServer server = activeServer;
+        String url = server.getDownloadUrl(TRANSPORT_PREFLIGHT_BYTES);
+        for (Transport candidate : transports) {
+            if (cancelled) {
+                break;
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Download test error: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            try {
-                if (inputStream != null) inputStream.close();
-                if (connection != null) connection.disconnect();
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (!candidate.supports(url)) {
+                continue;
             }
+            long start = MeasurementCore.nanoTime();
+            try (InputStream in = candidate.openDownload(url,
+                    server.usesRangeRequests() ? TRANSPORT_PREFLIGHT_BYTES : 0)) {
+                byte[] buffer = new byte[(int) TRANSPORT_PREFLIGHT_BYTES];
+                while (in.read(buffer) != -1) {
+                    // Drain so the connection can be reused
+                }
+                Log.d(TAG, "Transport " + candidate.getName() + " selected after a "
+                        + (MeasurementCore.nanoTime() - start) / 1_000_000 + " ms preflight");
+                transport = candidate;
+                return candidate;
+            } catch (IOException e) {
+                Log.e(TAG, "Transport " + candidate.getName() + " failed its preflight: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private String uploadUrl(TestServer server) {
+        if (server.getUploadUrl() != null) {
+            return server.getUploadUrl();
+        }
+        return defaultServer.getUploadUrl() != null ? defaultServer.getUploadUrl() : UPLOAD_TEST_URL;
+    }
+
+    private Closeable track(Closeable closeable) throws IOException {
+        inFlight.add(closeable);
+        if (cancelled) {
+            untrack(closeable);
+            closeable.close();
+            throw new IOException("Speed test cancelled");
+        }
+        return closeable;
+    }
+
+    private void untrack(Closeable closeable) {
+        if (closeable != null) {
+            inFlight.remove(closeable);
         }
-        return 0;
     }
 
     /**
-     * General download test - tests overall mobile data speed (not content-specific)
-     * Uses larger file and longer duration for more accurate general speed measurement
+     * Opens and handshakes connections to the host of the given url before a timed
+     * phase starts, so DNS, TCP and TLS setup is not counted in the throughput.
+     * Returns the number of connections that were warmed up.
      */
-    public double testGeneralDownloadSpeed() {
-        HttpURLConnection connection = null;
-        InputStream inputStream = null;
+    public int warmUp(String url, int connections) {
+        return transport.warmUp(url, connections);
+    }
 
-        try {
-            // Use larger file for general test
-            URL testUrl = new URL(GENERAL_DOWNLOAD_TEST);
-
-            Log.d(TAG, "Starting GENERAL download test from: " + testUrl);
-
-            connection = (HttpURLConnection) testUrl.openConnection();
-            connection.setRequestMethod("GET");
-            connection.setConnectTimeout(15000);
-            connection.setReadTimeout(20000);
-            connection.setRequestProperty("Cache-Control", "no-cache");
-            connection.connect();
-
-            int responseCode = connection.getResponseCode();
-            Log.d(TAG, "Response code: " + responseCode);
-
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                inputStream = connection.getInputStream();
-
-                byte[] buffer = new byte[8192];
-                long totalBytes = 0;
-                long startTime = System.currentTimeMillis();
-                int bytesRead;
-
-                // Longer test duration for general test
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    totalBytes += bytesRead;
-                    long currentTime = System.currentTimeMillis();
-
-                    // Log progress
-                    if (totalBytes % (1024 * 1024 * 5) == 0) { // Every 5MB
-                        double currentSpeed = (totalBytes * 8.0) / ((currentTime - startTime) / 1000.0 * 1_000_000.0);
-                        Log.d(TAG, "Progress: " + (totalBytes / (1024 * 1024)) + " MB, Current speed: " + String.format("%.2f", currentSpeed) + " Mbps");
-                    }
-
-                    // 12 second test for general
-                    if (currentTime - startTime > 12000) {
-                        break;
-                    }
-                }
+    /**
+     * Ping test using application-layer probes (TCP connect time of a fresh HTTPS connection)
+     */
+    public long getPing(String host) {
+        host = LatencyProbe.toTarget(host);
 
-                long endTime = System.currentTimeMillis();
-                double durationSec = (endTime - startTime) / 1000.0;
+        Log.d(TAG, "Testing ping for: " + host);
 
-                if (durationSec > 0 && totalBytes > 0) {
-                    double speedMbps = (totalBytes * 8.0) / (durationSec * 1_000_000.0);
-                    Log.d(TAG, "GENERAL Download: " + totalBytes + " bytes in " + durationSec + "s = " + speedMbps + " Mbps");
-                    return speedMbps;
-                }
-            } else {
-                Log.e(TAG, "HTTP error code: " + responseCode);
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "General download test error: " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            try {
-                if (inputStream != null) inputStream.close();
-                if (connection != null) connection.disconnect();
-            } catch (Exception e) {
-                e.printStackTrace();
+        // Perform multiple pings and get average
+        double totalTime = 0;
+        int successfulPings = 0;
+
+        for (int i = 0; i < 3; i++) {
+            LatencyProbe.Timing timing = latencyProbe.probe(host);
+            if (timing.success) {
+                totalTime += timing.rttMs();
+                successfulPings++;
+                Log.d(TAG, "Ping " + (i + 1) + ": " + timing.rttMs() + " ms (dns " + timing.dnsMs
+                        + ", tls " + timing.tlsMs + ", ttfb " + timing.ttfbMs + ")");
             }
         }
-        return 0;
+
+        if (successfulPings > 0) {
+            long avgPing = Math.round(totalTime / successfulPings);
+            Log.d(TAG, "Average ping: " + avgPing + " ms");
+            return avgPing;
+        }
+        return -1;
     }
 
     /**
-     * General upload test - larger file for accurate general speed
+     * Streams live throughput and latency samples (every 100 ms) while a phase runs.
+     * The listener is called through deliveryExecutor, e.g. the main thread; updates
+     * are coalesced so a busy UI never holds up the measurement.
      */
-    public double testGeneralUploadSpeed() {
-        HttpURLConnection connection = null;
+    public void setSampleListener(LiveSampleReporter.Listener listener, Executor deliveryExecutor) {
+        if (sampleReporter != null) {
+            sampleReporter.shutdown();
+        }
+        sampleReporter = listener != null ? new LiveSampleReporter(listener, deliveryExecutor) : null;
+    }
 
-        try {
-            URL url = new URL("https://httpbin.org/post");
+    /**
+     * Sets the adaptive stop rule for download and upload phases, or null to always run
+     * each phase for its full duration. The phase durations remain the upper limit.
+     */
+    public void setAdaptiveStopRule(AdaptiveStopRule stopRule) {
+        this.stopRule = stopRule;
+    }
 
-            Log.d(TAG, "Starting GENERAL upload test to: " + url);
+    /**
+     * Enables loaded-latency probing during download and upload phases, or disables it with null
+     */
+    public void setLoadedLatencyHost(String host) {
+        this.loadedLatencyHost = host;
+    }
 
-            // Larger file for general test (1MB)
-            byte[] data = new byte[1024 * 1024];
-            for (int i = 0; i < data.length; i++) {
-                data[i] = (byte) (i % 256);
-            }
+    private LoadedLatencyMonitor startLoadedLatencyMonitor() {
+        return startLoadedLatencyMonitor(loadedLatencyHost);
+    }
+
+    private LoadedLatencyMonitor startLoadedLatencyMonitor(String host) {
+        if (host == null) {
+            return null;
+        }
+        LoadedLatencyMonitor monitor = new LoadedLatencyMonitor(latencyProbe, host);
+        monitor.setSampleReporter(sampleReporter);
+        monitor.start();
+        return monitor;
+    }
+
+    private LatencySampler.Stats stopLoadedLatencyMonitor(LoadedLatencyMonitor monitor) {
+        return monitor != null ? monitor.stop() : null;
+    }
 
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(15000);
-            connection.setReadTimeout(20000);
-            connection.setRequestProperty("Content-Type", "application/octet-stream");
-            connection.setRequestProperty("Content-Length", String.valueOf(data.length));
+    /**
+     * Grades bufferbloat from the idle latency and the latency seen under download and upload load.
+     * Pass null for a phase that was not measured.
+     */
+    public static BufferbloatResult gradeBufferbloat(long idleMs, LatencySampler.Stats loadedDownload,
+                                                     LatencySampler.Stats loadedUpload) {
+        BufferbloatResult result = new BufferbloatResult();
+        result.idleMs = idleMs;
+        result.loadedDownloadMs = loadedDownload != null && loadedDownload.received > 0
+                ? Math.round(loadedDownload.medianMs) : -1;
+        result.loadedUploadMs = loadedUpload != null && loadedUpload.received > 0
+                ? Math.round(loadedUpload.medianMs) : -1;
+
+        if (idleMs < 0 || (result.loadedDownloadMs < 0 && result.loadedUploadMs < 0)) {
+            result.grade = "?";
+            return result;
+        }
 
-            long startTime = System.currentTimeMillis();
+        long increase = Math.max(result.loadedDownloadMs, result.loadedUploadMs) - idleMs;
+        result.increaseMs = Math.max(0, increase);
+        if (result.increaseMs < 5) {
+            result.grade = "A+";
+        } else if (result.increaseMs < 30) {
+            result.grade = "A";
+        } else if (result.increaseMs < 60) {
+            result.grade = "B";
+        } else if (result.increaseMs < 200) {
+            result.grade = "C";
+        } else if (result.increaseMs < 400) {
+            result.grade = "D";
+        } else {
+            result.grade = "F";
+        }
+        return result;
+    }
 
-            // Upload data
-            connection.getOutputStream().write(data);
-            connection.getOutputStream().flush();
+    /**
+     * Single latency probe with a DNS / TCP connect / TLS / time-to-first-byte breakdown
+     */
+    public LatencyProbe.Timing probeLatency(String host) {
+        return latencyProbe.probe(host);
+    }
 
-            // Wait for response
-            int responseCode = connection.getResponseCode();
-            long endTime = System.currentTimeMillis();
+    /**
+     * Single-stream download of the given url, fetched again until the test window ends
+     */
+    public double testDownloadSpeed(String url) {
+        return testParallelDownloadSpeed(url, 1, DOWNLOAD_TEST_DURATION_MS).speedMbps;
+    }
 
-            Log.d(TAG, "Upload response code: " + responseCode);
+    /**
+     * Reference single-stream download from the default server with a planned payload size - the general
+     * figure shown next to the per-service results
+     */
+    public double testReferenceDownloadSpeed() {
+        TestServer server = defaultServer;
+        RequestPlanner.Plan plan = planDownload(server, DOWNLOAD_TEST_DURATION_MS, 1, 1, DOWNLOAD_TEST_BYTES);
+        return testPlannedDownload(server, plan, DOWNLOAD_TEST_DURATION_MS).speedMbps;
+    }
+
+    /**
+     * Probes the service's catalog objects on its own CDN hosts: DNS, connection setup,
+     * TTFB and transfer rate per object
+     */
+    public ServiceProbeEngine.ServiceResult testServiceCdn(String service, List<String> urls) {
+        Log.d(TAG, "Probing " + urls.size() + " catalog object(s) for " + service);
+        ServiceProbeEngine engine = new ServiceProbeEngine(this::openCatalogObject,
+                ServiceProbeEngine.DEFAULT_TRANSFER_MS, measurementCore);
+        return engine.run(service, urls);
+    }
 
-            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == 200) {
-                double durationSec = (endTime - startTime) / 1000.0;
-                double sizeMb = (data.length * 8.0) / 1_000_000.0;
-                double speedMbps = sizeMb / durationSec;
+    /**
+     * Resolves the objects of every service in parallel, see resolveServiceObjects(ServiceCatalog, String).
+     * A service that resolved nothing within RESOLVE_TIMEOUT_MS is left out.
+     */
+    public Map<String, List<String>> resolveServiceObjects(ServiceCatalog catalog, Collection<String> services) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(services.size(), RESOLVE_THREADS)));
+        Map<String, List<String>> resolved = new ConcurrentHashMap<>();
+        for (String service : services) {
+            executor.execute(() -> resolved.put(service, resolveServiceObjects(catalog, service)));
+        }
 
-                Log.d(TAG, "GENERAL Upload: " + data.length + " bytes in " + durationSec + "s = " + speedMbps + " Mbps");
-                return speedMbps;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(RESOLVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Catalog resolution timed out, abandoning the remaining services");
             }
-        } catch (Exception e) {
-            Log.e(TAG, "General upload test error: " + e.getMessage());
-            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            executor.shutdownNow();
+        }
+
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (String service : services) {
+            List<String> objects = resolved.get(service);
+            if (objects != null && !objects.isEmpty()) {
+                result.put(service, objects);
             }
         }
-        return 0;
+        return result;
     }
 
     /**
-     * Test latency/jitter - multiple pings to measure consistency
+     * The service's objects for testServiceCdn() and scanServices(), largest first: its stable
+     * catalog objects plus the assets its catalog pages reference on its CDN right now.
+     * Every candidate is sized with a HEAD request; ones that do not answer are dropped and ones
+     * too small to give a transfer rate go last, so the first object is the one to burst on.
      */
-    public LatencyResult testLatency(String host) {
-        try {
-            host = host.replace("https://", "").replace("http://", "").split("/")[0];
-
-            Log.d(TAG, "Testing latency for: " + host);
-
-            long[] pings = new long[10];
-            int successfulPings = 0;
-
-            for (int i = 0; i < 10; i++) {
-                try {
-                    long start = System.currentTimeMillis();
-                    InetAddress address = InetAddress.getByName(host);
-                    boolean reachable = address.isReachable(3000);
-                    long end = System.currentTimeMillis();
-
-                    if (reachable) {
-                        pings[successfulPings] = end - start;
-                        successfulPings++;
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Ping attempt " + (i+1) + " failed");
-                }
-
-                Thread.sleep(100);
+    public List<String> resolveServiceObjects(ServiceCatalog catalog, String service) {
+        Set<String> candidates = new LinkedHashSet<>(catalog.getUrls(service));
+        for (String page : catalog.getPages(service)) {
+            try {
+                List<String> assets = ServiceCatalog.findAssetUrls(page, fetchPage(page));
+                candidates.addAll(assets.subList(0, Math.min(assets.size(), MAX_PAGE_ASSETS)));
+            } catch (IOException e) {
+                Log.e(TAG, "Fetching catalog page " + page + " failed: " + e.getMessage());
             }
+        }
 
-            if (successfulPings > 0) {
-                // Calculate average, min, max, jitter
-                long sum = 0;
-                long min = Long.MAX_VALUE;
-                long max = 0;
+        Map<String, Long> sizes = new HashMap<>();
+        List<String> objects = new ArrayList<>();
+        for (String url : candidates) {
+            if (Thread.currentThread().isInterrupted()) break;
+            try {
+                sizes.put(url, headContentLength(url));
+                objects.add(url);
+            } catch (IOException e) {
+                Log.e(TAG, "Dropping catalog object " + url + ": " + e.getMessage());
+            }
+        }
+        // Stable sort, so equal sizes keep the catalog's order
+        Collections.sort(objects, (a, b) -> Long.compare(sizeRank(sizes.get(b)), sizeRank(sizes.get(a))));
+        if (objects.size() > MAX_SERVICE_OBJECTS) {
+            objects = new ArrayList<>(objects.subList(0, MAX_SERVICE_OBJECTS));
+        }
 
-                for (int i = 0; i < successfulPings; i++) {
-                    sum += pings[i];
-                    if (pings[i] < min) min = pings[i];
-                    if (pings[i] > max) max = pings[i];
-                }
+        long firstSize = objects.isEmpty() ? 0 : sizes.get(objects.get(0));
+        if (firstSize >= 0 && firstSize < ServiceProbeEngine.MIN_TRANSFER_BYTES) {
+            Log.e(TAG, "No catalog object of " + service + " is large enough to give a transfer rate");
+        }
+        Log.d(TAG, service + " resolved to " + objects);
+        return objects;
+    }
 
-                long avg = sum / successfulPings;
-                long jitter = max - min;
+    /**
+     * An unknown size (-1) ranks between the objects known to give a rate and the rest
+     */
+    private static long sizeRank(long size) {
+        return size >= 0 ? size : ServiceProbeEngine.MIN_TRANSFER_BYTES - 1;
+    }
 
-                return new LatencyResult(avg, min, max, jitter);
+    private String fetchPage(String url) throws IOException {
+        Call call = httpClient.newCall(new Request.Builder().url(url).build());
+        Closeable handle = track(call::cancel);
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("HTTP " + response.code());
             }
-        } catch (Exception e) {
-            Log.e(TAG, "Latency test error: " + e.getMessage());
+            InputStream inputStream = response.body().byteStream();
+            ByteArrayOutputStream page = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while (page.size() < MAX_PAGE_BYTES && (read = inputStream.read(buffer)) != -1) {
+                page.write(buffer, 0, read);
+            }
+            return new String(page.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            untrack(handle);
         }
-        return new LatencyResult(-1, -1, -1, -1);
     }
 
     /**
-     * Helper class for latency results
+     * Content-Length of the object, -1 if the server does not say; throws unless it answers 2xx
      */
-    public static class LatencyResult {
-        public long average;
-        public long min;
-        public long max;
-        public long jitter;
-
-        public LatencyResult(long avg, long min, long max, long jitter) {
-            this.average = avg;
-            this.min = min;
-            this.max = max;
-            this.jitter = jitter;
+    private long headContentLength(String url) throws IOException {
+        Call call = httpClient.newCall(new Request.Builder().url(url).head().build());
+        Closeable handle = track(call::cancel);
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("HTTP " + response.code());
+            }
+            String length = response.header("Content-Length");
+            try {
+                return length != null ? Long.parseLong(length.trim()) : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        } finally {
+            untrack(handle);
         }
     }
 
     /**
-     * Alternative download test using OkHttp (if you have the dependency)
+     * "Scan all" mode: latency probes and one short throughput burst against every service
+     * at once, ranked best first. Downloads at most byteBudget bytes in total.
+     * burstUrls maps a service to the object used for its burst (its domain root if missing).
      */
-    public double testDownloadSpeedOkHttp(String url) {
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .readTimeout(15, TimeUnit.SECONDS)
-                .build();
-
-        Request request = new Request.Builder()
-                .url(DOWNLOAD_TEST_FILE)
-                .addHeader("Cache-Control", "no-cache")
-                .build();
+    public List<BatchScanner.ServiceScan> scanServices(Map<String, String> serviceDomains,
+                                                       Map<String, String> burstUrls, long byteBudget) {
+        List<String> hosts = new ArrayList<>(serviceDomains.values());
+        hosts.addAll(burstUrls.values());
+        preResolve(hosts);
+
+        BatchScanner scanner = new BatchScanner(latencyProbe, this::openCatalogObject, measurementCore, byteBudget);
+        return scanner.scan(serviceDomains, burstUrls);
+    }
 
+    private InputStream openCatalogObject(String url, LatencyProbe.Timing timing) throws IOException {
+        Call call = latencyProbe.newFetchCall(url, timing);
+        Closeable handle = track(call::cancel);
+        Response response;
         try {
-            Log.d(TAG, "Starting OkHttp download test");
-
-            Response response = client.newCall(request).execute();
-            if (response.isSuccessful() && response.body() != null) {
-                byte[] buffer = new byte[8192];
-                long totalBytes = 0;
-                long startTime = System.currentTimeMillis();
+            response = call.execute();
+        } catch (IOException e) {
+            untrack(handle);
+            throw e;
+        }
+        // Setup and TTFB are recorded either way, but an error page is not the object
+        timing.statusCode = response.code();
+        if (!response.isSuccessful()) {
+            untrack(handle);
+            response.close();
+            throw new IOException("HTTP " + response.code() + " for " + url);
+        }
+        if (response.body() == null) {
+            untrack(handle);
+            response.close();
+            throw new IOException("Response body is null");
+        }
+        return new FilterInputStream(response.body().byteStream()) {
+            @Override
+            public void close() throws IOException {
+                untrack(handle);
+                super.close();
+            }
+        };
+    }
 
-                InputStream inputStream = response.body().byteStream();
-                int read;
+    /**
+     * General download test - tests overall mobile data speed (not content-specific)
+     * Uses larger file and longer duration for more accurate general speed measurement
+     */
+    public double testGeneralDownloadSpeed() {
+        return testGeneralDownload().speedMbps;
+    }
 
-                while ((read = inputStream.read(buffer)) != -1) {
-                    totalBytes += read;
-                    long currentTime = System.currentTimeMillis();
+    /**
+     * General download test with the payload size and stream count planned from a probe transfer
+     */
+    public DownloadResult testGeneralDownload() {
+        TestServer server = activeServer;
+        RequestPlanner.Plan plan = planDownload(server, GENERAL_DOWNLOAD_TEST_DURATION_MS, 1, MAX_PLANNED_STREAMS,
+                GENERAL_DOWNLOAD_TEST_BYTES);
+        return testPlannedDownload(server, plan, GENERAL_DOWNLOAD_TEST_DURATION_MS);
+    }
 
-                    if (currentTime - startTime > DOWNLOAD_TEST_DURATION_MS) {
-                        break;
-                    }
-                }
+    /**
+     * General download test over a fixed number of concurrent connections (payload size still planned)
+     */
+    public DownloadResult testGeneralDownloadSpeed(int streams) {
+        TestServer server = activeServer;
+        RequestPlanner.Plan plan = planDownload(server, GENERAL_DOWNLOAD_TEST_DURATION_MS, streams, streams,
+                GENERAL_DOWNLOAD_TEST_BYTES);
+        return testPlannedDownload(server, plan, GENERAL_DOWNLOAD_TEST_DURATION_MS);
+    }
 
-                inputStream.close();
-                response.close();
+    private DownloadResult testPlannedDownload(TestServer server, RequestPlanner.Plan plan, long durationMs) {
+        String url = server.getDownloadUrl(plan.bytesPerRequest);
+        Log.d(TAG, "Starting planned download test from: " + server.getName() + " " + url);
+        DownloadResult result = runDownload(url, rangeBytes(server, plan.bytesPerRequest), plan.streams, durationMs);
+        result.plan = plan;
+        return result;
+    }
 
-                long endTime = System.currentTimeMillis();
-                double durationSec = (endTime - startTime) / 1000.0;
+    /**
+     * Bytes to request with a Range header, 0 when the url itself sets the size
+     */
+    private static long rangeBytes(TestServer server, long bytes) {
+        return server.usesRangeRequests() ? bytes : 0;
+    }
 
-                if (durationSec > 0 && totalBytes > 0) {
-                    double speedMbps = (totalBytes * 8.0) / (durationSec * 1_000_000.0);
-                    Log.d(TAG, "Download: " + totalBytes + " bytes in " + durationSec + "s = " + speedMbps + " Mbps");
-                    return speedMbps;
-                }
-            } else {
-                Log.e(TAG, "Response not successful or body is null");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "OkHttp download error: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Probes the download rate and plans the request size and stream count for durationMs.
+     * Falls back to defaultBytes per request if the probe fails.
+     */
+    public RequestPlanner.Plan planDownload(TestServer server, long durationMs, int minStreams, int maxStreams,
+                                            long defaultBytes) {
+        RequestPlanner.Plan plan = requestPlanner.planDownload(
+                bytes -> transport.openDownload(server.getDownloadUrl(bytes), rangeBytes(server, bytes)),
+                durationMs, minStreams, maxStreams);
+        if (plan == null) {
+            plan = new RequestPlanner.Plan();
+            plan.probeMbps = -1;
+            plan.streams = Math.max(minStreams, Math.min(DEFAULT_DOWNLOAD_STREAMS, maxStreams));
+            plan.bytesPerRequest = defaultBytes;
         }
-        return 0;
+        return plan;
     }
 
     /**
-     * Upload speed test using httpbin.org (no Firebase needed)
+     * Probes the upload rate and returns the upload size that fills durationMs
+     * (UPLOAD_TEST_SIZE_KB if the probe fails)
      */
-    public double testUploadSpeed() {
-        HttpURLConnection connection = null;
+    public long planUploadBytes(long durationMs) {
+        RequestPlanner.Plan plan = requestPlanner.planUpload(this::probeUploadMbps, durationMs);
+        return plan != null ? plan.bytesPerRequest : UPLOAD_TEST_SIZE_KB * 1024L;
+    }
 
-        try {
-            // Using httpbin.org for upload testing (publicly available)
-            URL url = new URL("https://httpbin.org/post");
+    private double probeUploadMbps(long bytes) throws IOException {
+        StreamingUploadEngine engine = new StreamingUploadEngine(UPLOAD_PROBE_TIMEOUT_MS, bytes, measurementCore);
+        long ackTime = transport.upload(uploadUrl(defaultServer), engine);
+        return engine.finish(ackTime).averageMbps;
+    }
 
-            Log.d(TAG, "Starting upload test to: " + url);
+    /**
+     * Multi-connection download test.
+     * Opens the given number of concurrent streams and reports the aggregate
+     * speed plus a per-stream breakdown.
+     */
+    public DownloadResult testParallelDownloadSpeed(String url, int streams, long durationMs) {
+        return runDownload(url, 0, streams, durationMs);
+    }
 
-            // Create test data
-            byte[] data = new byte[1024 * UPLOAD_TEST_SIZE_KB];
-            for (int i = 0; i < data.length; i++) {
-                data[i] = (byte) (i % 256);
-            }
+    private DownloadResult runDownload(String url, long rangeBytes, int streams, long durationMs) {
+        // Clamped once, as the engine would, so the warm-up opens exactly the connections it uses
+        streams = Math.max(1, Math.min(streams, MeasurementCore.MAX_STREAMS));
+        Transport current = transport;
+        Log.d(TAG, "Starting download test from: " + url + " (" + streams + " streams over "
+                + current.getName() + ")");
+
+        // Connection setup happens here, outside the measured window
+        current.warmUp(url, streams);
+
+        ParallelDownloadEngine engine = new ParallelDownloadEngine(
+                () -> current.openDownload(url, rangeBytes), streams, durationMs, measurementCore);
+        engine.setSampleReporter(sampleReporter);
+        engine.setStopRule(stopRule);
+        LoadedLatencyMonitor monitor = startLoadedLatencyMonitor();
+        DownloadResult result = engine.run();
+        result.loadedLatency = stopLoadedLatencyMonitor(monitor);
+        return result;
+    }
+
+    /**
+     * General upload test - streams for a fixed duration for accurate general speed
+     */
+    public double testGeneralUploadSpeed() {
+        return testGeneralUpload().speedMbps;
+    }
+
+    /**
+     * General upload test returning the full result (stable-phase figures, per-stream speeds,
+     * loaded latency), over DEFAULT_UPLOAD_STREAMS concurrent connections
+     */
+    public UploadResult testGeneralUpload() {
+        return testGeneralUpload(DEFAULT_UPLOAD_STREAMS);
+    }
 
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setRequestMethod("POST");
-            connection.setDoOutput(true);
-            connection.setConnectTimeout(10000);
-            connection.setReadTimeout(15000);
-            connection.setRequestProperty("Content-Type", "application/octet-stream");
-            connection.setRequestProperty("Content-Length", String.valueOf(data.length));
+    /**
+     * General upload test over a fixed number of concurrent connections
+     */
+    public UploadResult testGeneralUpload(int streams) {
+        String url = uploadUrl(activeServer);
+        Log.d(TAG, "Starting GENERAL upload test to: " + url);
+        return testParallelUploadSpeed(url, streams, GENERAL_UPLOAD_TEST_DURATION_MS);
+    }
 
-            long startTime = System.currentTimeMillis();
+    /**
+     * Multi-connection upload test.
+     * Runs the given number of concurrent upload streams, timed on the sending side, and
+     * reports the aggregate speed plus a per-stream breakdown.
+     */
+    public UploadResult testParallelUploadSpeed(String url, int streams, long durationMs) {
+        // Clamped once, as the engine would, so the warm-up opens exactly the connections it uses
+        streams = Math.max(1, Math.min(streams, MeasurementCore.MAX_STREAMS));
+        Transport current = transport;
+        Log.d(TAG, "Starting upload test to: " + url + " (" + streams + " streams over "
+                + current.getName() + ")");
+
+        // Connection setup happens here, outside the measured window
+        current.warmUp(url, streams);
+
+        ParallelUploadEngine engine = new ParallelUploadEngine(
+                body -> current.upload(url, body), streams, durationMs, measurementCore);
+        engine.setSampleReporter(sampleReporter);
+        engine.setStopRule(stopRule);
+        LoadedLatencyMonitor monitor = startLoadedLatencyMonitor();
+        UploadResult result = engine.run();
+        result.loadedLatency = stopLoadedLatencyMonitor(monitor);
+        return result;
+    }
 
-            // Upload data
-            connection.getOutputStream().write(data);
-            connection.getOutputStream().flush();
+    /**
+     * Upload speed test with a planned payload size, to the default server's upload endpoint
+     */
+    public double testUploadSpeed() {
+        return testStreamingUploadSpeed(uploadUrl(defaultServer), UPLOAD_TEST_DURATION_MS,
+                planUploadBytes(UPLOAD_TEST_DURATION_MS)).speedMbps;
+    }
 
-            // Wait for response
-            int responseCode = connection.getResponseCode();
-            long endTime = System.currentTimeMillis();
+    /**
+     * Time-bounded streaming upload test.
+     * Streams a generated body until the duration elapses or maxBytes is sent.
+     */
+    public UploadResult testStreamingUploadSpeed(String url, long durationMs, long maxBytes) {
+        Transport current = transport;
+        StreamingUploadEngine engine = new StreamingUploadEngine(durationMs, maxBytes, measurementCore);
+        engine.setSampleReporter(sampleReporter);
+        engine.setStopRule(stopRule);
 
-            Log.d(TAG, "Upload response code: " + responseCode);
+        Log.d(TAG, "Starting upload test to: " + url + " over " + current.getName());
 
-            if (responseCode == HttpURLConnection.HTTP_OK || responseCode == 200) {
-                double durationSec = (endTime - startTime) / 1000.0;
-                double sizeMb = (data.length * 8.0) / 1_000_000.0;
-                double speedMbps = sizeMb / durationSec;
+        current.warmUp(url, 1);
 
-                Log.d(TAG, "Upload: " + data.length + " bytes in " + durationSec + "s = " + speedMbps + " Mbps");
-                return speedMbps;
-            }
+        LoadedLatencyMonitor monitor = startLoadedLatencyMonitor();
+        UploadResult result = new UploadResult();
+        try {
+            long ackTime = current.upload(url, engine);
+            result = engine.finish(ackTime);
         } catch (Exception e) {
-            Log.e(TAG, "Upload test error: " + e.getMessage());
+            Log.e(TAG, "Streaming upload test error: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            if (connection != null) {
-                connection.disconnect();
-            }
+            result.loadedLatency = stopLoadedLatencyMonitor(monitor);
         }
-        return 0;
+        return result;
     }
 
     /**
-     * Alternative upload test using OkHttp
+     * Full-duplex load test with its own isolated baselines: each direction runs alone
+     * first, then both at once, all with the same streams, payload and duration and no
+     * stop rule, so the ratios compare like with like. Takes three duplex windows.
      */
-    public double testUploadSpeedOkHttp() {
-        OkHttpClient client = new OkHttpClient.Builder()
-                .connectTimeout(10, TimeUnit.SECONDS)
-                .writeTimeout(15, TimeUnit.SECONDS)
-                .readTimeout(15, TimeUnit.SECONDS)
-                .build();
+    public DuplexResult testDuplex() {
+        TestServer server = activeServer;
+        String downloadUrl = server.getDownloadUrl(GENERAL_DOWNLOAD_TEST_BYTES);
+        long range = rangeBytes(server, GENERAL_DOWNLOAD_TEST_BYTES);
+        String uploadUrl = uploadUrl(server);
+        Transport current = transport;
+        Log.d(TAG, "Measuring isolated duplex baselines against " + server.getName());
+
+        current.warmUp(downloadUrl, DEFAULT_DOWNLOAD_STREAMS);
+        double downloadMbps = newDuplexDownload(current, downloadUrl, range).run().speedMbps;
+        current.warmUp(uploadUrl, DEFAULT_UPLOAD_STREAMS);
+        double uploadMbps = newDuplexUpload(current, uploadUrl).run().speedMbps;
+        return testDuplex(downloadMbps, uploadMbps);
+    }
 
+    /**
+     * Full-duplex load test: downloads and uploads against the active server at the same
+     * time, DEFAULT_DOWNLOAD_STREAMS and DEFAULT_UPLOAD_STREAMS connections each, with
+     * latency probed throughout. Each direction is compared with its isolated figure
+     * (pass -1 where it was not measured), which is only like for like if it was measured
+     * with the same configuration, as testDuplex() does.
+     */
+    public DuplexResult testDuplex(double isolatedDownloadMbps, double isolatedUploadMbps) {
+        TestServer server = activeServer;
+        String downloadUrl = server.getDownloadUrl(GENERAL_DOWNLOAD_TEST_BYTES);
+        long range = rangeBytes(server, GENERAL_DOWNLOAD_TEST_BYTES);
+        String uploadUrl = uploadUrl(server);
+        Transport current = transport;
+        Log.d(TAG, "Starting duplex test against " + server.getName() + " over " + current.getName());
+
+        // Both directions' connections are set up before either starts
+        current.warmUp(downloadUrl, DEFAULT_DOWNLOAD_STREAMS);
+        current.warmUp(uploadUrl, DEFAULT_UPLOAD_STREAMS);
+
+        ParallelDownloadEngine downloadEngine = newDuplexDownload(current, downloadUrl, range);
+        ParallelUploadEngine uploadEngine = newDuplexUpload(current, uploadUrl);
+
+        LiveSampleReporter reporter = sampleReporter;
+        if (reporter != null) {
+            reporter.startPhase(LiveSampleReporter.PHASE_DUPLEX, null);
+        }
+        String latencyHost = loadedLatencyHost != null ? loadedLatencyHost : server.getProbeTarget();
+        LoadedLatencyMonitor monitor = startLoadedLatencyMonitor(latencyHost);
+        ExecutorService uploadThread = Executors.newSingleThreadExecutor();
+        DuplexResult result = new DuplexResult();
         try {
-            Log.d(TAG, "Starting OkHttp upload test");
-
-            // Create test data
-            byte[] data = new byte[1024 * UPLOAD_TEST_SIZE_KB];
-            for (int i = 0; i < data.length; i++) {
-                data[i] = (byte) (i % 256);
+            Future<UploadResult> upload = uploadThread.submit(uploadEngine::run);
+            result.download = downloadEngine.run();
+            result.upload = upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Duplex upload error: " + e.getCause());
+        } finally {
+            result.loadedLatency = stopLoadedLatencyMonitor(monitor);
+            uploadThread.shutdownNow();
+            if (reporter != null) {
+                reporter.endPhase();
             }
+        }
+        if (result.download == null) {
+            result.download = new DownloadResult(0);
+        }
+        if (result.upload == null) {
+            result.upload = new UploadResult();
+        }
 
-            RequestBody body = RequestBody.create(
-                    data,
-                    MediaType.parse("application/octet-stream")
-            );
+        result.isolatedDownloadMbps = isolatedDownloadMbps;
+        result.isolatedUploadMbps = isolatedUploadMbps;
+        result.downloadRatio = isolatedDownloadMbps > 0 ? result.download.speedMbps / isolatedDownloadMbps : -1;
+        result.uploadRatio = isolatedUploadMbps > 0 ? result.upload.speedMbps / isolatedUploadMbps : -1;
 
-            Request request = new Request.Builder()
-                    .url("https://httpbin.org/post")
-                    .post(body)
-                    .build();
+        Log.d(TAG, "Duplex: " + result.download.speedMbps + " Mbps down (" + Math.round(result.downloadRatio * 100)
+                + "% of isolated), " + result.upload.speedMbps + " Mbps up (" + Math.round(result.uploadRatio * 100)
+                + "% of isolated)");
+        return result;
+    }
 
-            long startTime = System.currentTimeMillis();
+    // No stop rule: both directions must load the link for the same window.
+    // The engines get no reporter either - the live view follows the loaded latency.
+    private ParallelDownloadEngine newDuplexDownload(Transport current, String url, long range) {
+        return new ParallelDownloadEngine(() -> current.openDownload(url, range), DEFAULT_DOWNLOAD_STREAMS,
+                DUPLEX_TEST_DURATION_MS, measurementCore);
+    }
 
-            Response response = client.newCall(request).execute();
+    private ParallelUploadEngine newDuplexUpload(Transport current, String url) {
+        return new ParallelUploadEngine(body -> current.upload(url, body), DEFAULT_UPLOAD_STREAMS,
+                DUPLEX_TEST_DURATION_MS, measurementCore);
+    }
 
-            long endTime = System.currentTimeMillis();
+    /**
+     * Test latency/jitter - probes sent on a fixed-rate schedule to measure consistency
+     */
+    public LatencyResult testLatency(String host) {
+        return testLatency(host, LatencySampler.DEFAULT_COUNT, LatencySampler.DEFAULT_INTERVAL_MS);
+    }
 
-            if (response.isSuccessful()) {
-                double durationSec = (endTime - startTime) / 1000.0;
-                double sizeMb = (data.length * 8.0) / 1_000_000.0;
-                double speedMbps = sizeMb / durationSec;
+    /**
+     * Test latency/jitter with a configurable probe count and interval
+     */
+    public LatencyResult testLatency(String host, int count, long intervalMs) {
+        host = LatencyProbe.toTarget(host);
 
-                Log.d(TAG, "Upload: " + data.length + " bytes in " + durationSec + "s = " + speedMbps + " Mbps");
-                response.close();
-                return speedMbps;
-            }
-            response.close();
-        } catch (Exception e) {
-            Log.e(TAG, "OkHttp upload error: " + e.getMessage());
-            e.printStackTrace();
+        Log.d(TAG, "Testing latency for: " + host);
+
+        // Resolved once up front, so no probe pays for DNS
+        TimedDns.Resolution resolution = resolveHost(host);
+
+        LatencySampler sampler = new LatencySampler(latencyProbe, count, intervalMs);
+        sampler.setSampleReporter(sampleReporter);
+        LatencySampler.Stats stats = sampler.sample(host);
+        if (stats.received == 0) {
+            LatencyResult failed = new LatencyResult(-1, -1, -1, -1);
+            failed.lossRatio = 1;
+            return failed;
+        }
+
+        LatencyResult result = new LatencyResult(Math.round(stats.meanMs), Math.round(stats.minMs),
+                Math.round(stats.maxMs), Math.round(stats.jitterMs));
+        result.median = Math.round(stats.medianMs);
+        result.p90 = Math.round(stats.p90Ms);
+        result.p99 = Math.round(stats.p99Ms);
+        result.lossRatio = stats.lossRatio;
+        result.probes = stats.timings;
+        if (resolution != null) {
+            result.dnsColdMs = resolution.coldMs;
+            result.dnsWarmMs = resolution.warmMs;
+        }
+        return result;
+    }
+
+    /**
+     * Helper class for latency results
+     */
+    public static class LatencyResult {
+        public long average;
+        public long min;
+        public long max;
+        // RFC 3550 interarrival jitter
+        public long jitter;
+        public long median = -1;
+        public long p90 = -1;
+        public long p99 = -1;
+        public double lossRatio;
+        // Per-probe DNS / TCP / TLS / TTFB breakdown
+        public LatencyProbe.Timing[] probes = new LatencyProbe.Timing[0];
+        // Name resolution, measured separately from the probes (-1 if not measured)
+        public double dnsColdMs = -1;
+        public double dnsWarmMs = -1;
+
+        public LatencyResult(long avg, long min, long max, long jitter) {
+            this.average = avg;
+            this.min = min;
+            this.max = max;
+            this.jitter = jitter;
+        }
+    }
+
+    /**
+     * Helper class for download results - aggregate speed plus per-stream breakdown
+     */
+    public static class DownloadResult {
+        // Stable-phase mean, with the TCP ramp-up excluded
+        public double speedMbps;
+        // Whole-window average, including ramp-up
+        public double averageMbps;
+        public double peakMbps;
+        public double p90Mbps;
+        public long rampUpMs;
+        public long totalBytes;
+        public long durationMs;
+        // Latency measured while downloading, null unless loaded latency is enabled
+        public LatencySampler.Stats loadedLatency;
+        public long[] streamBytes;
+        public double[] streamSpeedsMbps;
+        // Request plan the run used, null unless it was planned from a probe
+        public RequestPlanner.Plan plan;
+        // Set when the adaptive stop rule ended the phase before its full duration
+        public boolean stoppedEarly;
+        public long savedMs;
+        // Estimated bytes not transferred thanks to the early stop
+        public long savedBytes;
+
+        public DownloadResult(int streams) {
+            this.streamBytes = new long[streams];
+            this.streamSpeedsMbps = new double[streams];
         }
-        return 0;
     }
-}
\ No newline at end of file
+
+    /**
+     * Helper class for upload results
+     */
+    public static class UploadResult {
+        public double speedMbps;
+        public double averageMbps;
+        public double peakMbps;
+        public double p90Mbps;
+        public long rampUpMs;
+        public long totalBytes;
+        public long durationMs;
+        // Latency measured while uploading, null unless loaded latency is enabled
+        public LatencySampler.Stats loadedLatency;
+        // Bytes each stream handed to its socket, and its rate from first to last write
+        public long[] streamBytes = new long[0];
+        public double[] streamSpeedsMbps = new double[0];
+        // Set when the adaptive stop rule ended the phase before its full duration
+        public boolean stoppedEarly;
+        public long savedMs;
+        // Estimated bytes not transferred thanks to the early stop
+        public long savedBytes;
+    }
+
+    /**
+     * Helper class for full-duplex results - each direction under mutual load vs. alone
+     */
+    public static class DuplexResult {
+        public DownloadResult download;
+        public UploadResult upload;
+        // The same directions measured one at a time with the same configuration, -1 if not measured
+        public double isolatedDownloadMbps = -1;
+        public double isolatedUploadMbps = -1;
+        // Duplex speed as a fraction of the isolated speed, -1 if unknown
+        public double downloadRatio = -1;
+        public double uploadRatio = -1;
+        // Latency measured while both directions were loaded
+        public LatencySampler.Stats loadedLatency;
+    }
+
+    /**
+     * Helper class for bufferbloat results - idle vs. loaded latency, in ms (-1 if not measured)
+     */
+    public static class BufferbloatResult {
+        public long idleMs = -1;
+        public long loadedDownloadMs = -1;
+        public long loadedUploadMs = -1;
+        public long increaseMs;
+        public String grade;
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.appspeedtest;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Cancellable, time-boxed test pipeline (replaces AsyncTask).
+ * Runs each phase as a step on its own worker thread. A step that overruns its
+ * time box has its network I/O aborted and the pipeline moves on; cancel()
+ * aborts the in-flight I/O and stops the pipeline, so a test left behind by
+ * the activity can never compete with a new one for bandwidth.
+ * Listener callbacks and post() run on the main thread and stop after cancel().
+ */
+public class SpeedTestPipeline {
+
+    private static final String TAG = "SpeedTestPipeline";
+
+    /**
+     * Body of one step, run on a pipeline worker thread
+     */
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    public interface Listener {
+        void onStepStarted(String name);
+
+        /**
+         * @param completed false if the step failed or ran out of time
+         */
+        void onStepFinished(String name, boolean completed);
+
+        void onFinished();
+    }
+
+    private static class Step {
+        final String name;
+        final long timeoutMs;
+        final Action action;
+
+        Step(String name, long timeoutMs, Action action) {
+            this.name = name;
+            this.timeoutMs = timeoutMs;
+            this.action = action;
+        }
+    }
+
+    private final SpeedTestManager manager;
+    private final List<Step> steps = new ArrayList<>();
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor();
+    // Steps run one at a time, but a step that ignores the interrupt when it times out keeps its
+    // thread, so the next one starts on a fresh thread and its time box starts when it does
+    private final ExecutorService stepRunner = Executors.newCachedThreadPool();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private volatile boolean cancelled;
+
+    public SpeedTestPipeline(SpeedTestManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Adds a step that is aborted if it runs longer than timeoutMs
+     */
+    public SpeedTestPipeline addStep(String name, long timeoutMs, Action action) {
+        steps.add(new Step(name, timeoutMs, action));
+        return this;
+    }
+
+    public void start(Listener listener) {
+        coordinator.execute(() -> runSteps(listener));
+    }
+
+    /**
+     * Stops the pipeline and aborts any network I/O in flight. Safe to call more than once.
+     */
+    public void cancel() {
+        if (cancelled) return;
+        cancelled = true;
+        Log.d(TAG, "Cancelling pipeline");
+
+        manager.cancel();
+        stepRunner.shutdownNow();
+        coordinator.shutdownNow();
+        mainHandler.removeCallbacksAndMessages(null);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Runs the given code on the main thread unless the pipeline has been cancelled
+     */
+    public void post(Runnable runnable) {
+        mainHandler.post(() -> {
+            if (!cancelled) {
+                runnable.run();
+            }
+        });
+    }
+
+    private void runSteps(Listener listener) {
+        for (Step step : steps) {
+            if (cancelled) break;
+
+            post(() -> listener.onStepStarted(step.name));
+            Log.d(TAG, "Step started: " + step.name);
+
+            boolean completed = false;
+            Future<?> future;
+            try {
+                future = stepRunner.submit(() -> {
+                    step.action.run();
+                    return null;
+                });
+            } catch (Exception e) {
+                // Runner shut down by cancel()
+                break;
+            }
+
+            try {
+                future.get(step.timeoutMs, TimeUnit.MILLISECONDS);
+                completed = true;
+            } catch (TimeoutException e) {
+                Log.e(TAG, "Step " + step.name + " timed out after " + step.timeoutMs + " ms");
+                manager.cancelInFlight();
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Step " + step.name + " failed: " + e.getCause());
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                break;
+            }
+
+            final boolean stepCompleted = completed;
+            post(() -> listener.onStepFinished(step.name, stepCompleted));
+        }
+
+        post(listener::onFinished);
+        stepRunner.shutdown();
+        coordinator.shutdown();
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Time-bounded streaming upload engine.
+ * Streams a generated body for a fixed duration (or until a byte limit is
+ * reached) instead of timing a single write of a fixed in-memory payload,
+ * and feeds the bytes sent over time into a ThroughputEstimator.
+ * One engine instance measures one upload.
+ */
+public class StreamingUploadEngine {
+
+    private static final String TAG = "StreamingUploadEngine";
+
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    // Bytes per write on a plain OutputStream; the OkHttp body writes UploadPayload.CHUNK_SIZE
+    private static final int WRITE_SIZE = 64 * 1024;
+
+    private final long durationMs;
+    private final long maxBytes;
+    private final MeasurementCore core;
+    private final ThroughputEstimator estimator;
+    private final UploadPayload payload = UploadPayload.getShared();
+    private final MeasurementCore.Span span = new MeasurementCore.Span();
+    // Set for one stream of a parallel upload, which shares the run's deadline and estimator
+    private final MeasurementCore.Deadline sharedDeadline;
+    private LiveSampleReporter reporter;
+    private AdaptiveStopRule stopRule;
+    private MeasurementCore.Deadline deadline;
+    // The request's abort action, as registered with the manager's in-flight tracker
+    private Closeable inFlight;
+    private boolean aborted;
+
+    public StreamingUploadEngine(long durationMs, long maxBytes) {
+        this(durationMs, maxBytes, MeasurementCore.getDefault());
+    }
+
+    public StreamingUploadEngine(long durationMs, long maxBytes, MeasurementCore core) {
+        this.durationMs = durationMs;
+        this.maxBytes = maxBytes;
+        this.core = core;
+        this.estimator = new ThroughputEstimator(
+                ThroughputEstimator.DEFAULT_BUCKET_MS, durationMs + ThroughputEstimator.DEFAULT_BUCKET_MS);
+        this.sharedDeadline = null;
+    }
+
+    /**
+     * One stream of a ParallelUploadEngine run: writes until the run's deadline and adds its
+     * bytes to the run's estimator. The run owns the reporter, stop rule and result.
+     */
+    public StreamingUploadEngine(MeasurementCore.Deadline deadline, ThroughputEstimator estimator,
+                                 MeasurementCore core) {
+        this.durationMs = 0;
+        this.maxBytes = UNLIMITED;
+        this.core = core;
+        this.estimator = estimator;
+        this.sharedDeadline = deadline;
+    }
+
+    /**
+     * Streams live samples of this run to the reporter (optional)
+     */
+    public void setSampleReporter(LiveSampleReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Ends the upload early once the throughput converges (optional, duration-bound uploads only);
+     * durationMs stays the upper limit
+     */
+    public void setStopRule(AdaptiveStopRule stopRule) {
+        this.stopRule = stopRule;
+    }
+
+    /**
+     * Writes the generated payload to the stream until the duration elapses or
+     * the byte limit is reached. Returns the number of bytes written.
+     */
+    public long writeBody(OutputStream out) throws IOException {
+        return writeBody(out, WRITE_SIZE);
+    }
+
+    private long writeBody(OutputStream out, int writeSize) throws IOException {
+        if (sharedDeadline != null) {
+            core.write(out, payload.getBlock(), payload.nextOffset(), writeSize,
+                    sharedDeadline, maxBytes, estimator, span);
+            return span.bytes;
+        }
+        long startNanos = MeasurementCore.nanoTime();
+        deadline = new MeasurementCore.Deadline(startNanos + durationMs * 1_000_000);
+        AdaptiveStopRule.Watch watch = stopRule != null && maxBytes == UNLIMITED
+                ? stopRule.watch(estimator, deadline, startNanos) : null;
+        if (reporter != null) {
+            reporter.startPhase(LiveSampleReporter.PHASE_UPLOAD, estimator);
+        }
+        try {
+            core.write(out, payload.getBlock(), payload.nextOffset(), writeSize,
+                    deadline, maxBytes, estimator, span);
+        } finally {
+            if (watch != null) {
+                watch.stop();
+            }
+            if (reporter != null) {
+                reporter.endPhase();
+            }
+        }
+        return span.bytes;
+    }
+
+    /**
+     * Called by the transport with the handle it got from its CallTracker, so this one
+     * request can be aborted. Throws (after aborting) if abort() was already called.
+     */
+    void setInFlight(Closeable handle) throws IOException {
+        synchronized (this) {
+            inFlight = handle;
+            if (!aborted) return;
+        }
+        handle.close();
+        throw new IOException("Upload aborted");
+    }
+
+    /**
+     * Aborts the request carrying this body, e.g. one that got no response in time
+     */
+    public void abort() {
+        Closeable handle;
+        synchronized (this) {
+            aborted = true;
+            handle = inFlight;
+        }
+        if (handle != null) {
+            try {
+                handle.close();
+            } catch (Exception e) {
+                // Ignore - the request is being aborted
+            }
+        }
+    }
+
+    /**
+     * Bytes written and the time from the first to the last write
+     */
+    public MeasurementCore.Span getSpan() {
+        return span;
+    }
+
+    /**
+     * Wraps the engine as a chunked OkHttp request body
+     */
+    public RequestBody asRequestBody() {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                // Unknown up front - the body is sent chunked
+                return -1;
+            }
+
+            @Override
+            public boolean isOneShot() {
+                // A retried body would be measured twice
+                return true;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                // Writes that fit Okio's segment pool reuse its segments instead of allocating
+                writeBody(sink.outputStream(), UploadPayload.CHUNK_SIZE);
+            }
+        };
+    }
+
+    /**
+     * Builds the result once the server has acknowledged the body
+     * (acknowledgedNanos is a MeasurementCore.nanoTime() reading).
+     * The average window ends at the acknowledgement so bytes still sitting
+     * in the local socket buffer are not counted as sent.
+     */
+    public SpeedTestManager.UploadResult finish(long acknowledgedNanos) {
+        SpeedTestManager.UploadResult result = new SpeedTestManager.UploadResult();
+        long endNanos = Math.max(acknowledgedNanos, span.endNanos);
+        result.totalBytes = span.bytes;
+        result.durationMs = (endNanos - span.startNanos) / 1_000_000;
+        result.averageMbps = MeasurementCore.toMbps(result.totalBytes, result.durationMs);
+        result.streamBytes = new long[]{result.totalBytes};
+        result.streamSpeedsMbps = new double[]{result.averageMbps};
+
+        // The stable-phase rate only applies to long streamed uploads; short capped
+        // uploads fit in the socket buffer and are timed up to the acknowledgement
+        ThroughputEstimator.Estimate estimate = estimator.estimate();
+        boolean useEstimate = estimate.stableMs > 0 && maxBytes == UNLIMITED;
+        result.speedMbps = useEstimate ? estimate.meanMbps : result.averageMbps;
+        result.peakMbps = estimate.peakMbps;
+        result.p90Mbps = estimate.p90Mbps;
+        result.rampUpMs = useEstimate ? estimate.rampUpMs : 0;
+        if (deadline != null) {
+            result.stoppedEarly = deadline.wasPulledIn();
+            result.savedMs = AdaptiveStopRule.savedMs(deadline);
+            result.savedBytes = AdaptiveStopRule.savedBytes(result.speedMbps, result.savedMs);
+        }
+
+        Log.d(TAG, "Upload: " + result.totalBytes + " bytes in " + result.durationMs + " ms = "
+                + result.speedMbps + " Mbps");
+        return result;
+    }
+}
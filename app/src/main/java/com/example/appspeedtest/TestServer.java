@@ -0,0 +1,108 @@
+package com.example.appspeedtest;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One throughput test server, parsed from the test_servers configuration.
+ * Entries have the form "name|downloadUrl|uploadUrl". A download url containing
+ * {bytes} is sized through the url; any other url should point at a large
+ * static file and is sized with a Range request. The upload url is optional.
+ */
+public class TestServer {
+
+    private static final String TAG = "TestServer";
+
+    public static final String BYTES_PLACEHOLDER = "{bytes}";
+
+    public static final TestServer CLOUDFLARE = new TestServer("Cloudflare",
+            "https://speed.cloudflare.com/__down?bytes=" + BYTES_PLACEHOLDER,
+            "https://speed.cloudflare.com/__up");
+
+    private final String name;
+    private final String downloadUrl;
+    private final String uploadUrl;
+
+    public TestServer(String name, String downloadUrl, String uploadUrl) {
+        this.name = name;
+        this.downloadUrl = downloadUrl;
+        this.uploadUrl = uploadUrl;
+    }
+
+    /**
+     * Parses one "name|downloadUrl|uploadUrl" entry; returns null if it is malformed
+     */
+    public static TestServer parse(String entry) {
+        String[] parts = entry.split("\\|", -1);
+        if (parts.length < 2 || parts[0].trim().isEmpty() || !parts[1].trim().startsWith("http")) {
+            Log.e(TAG, "Ignoring malformed server entry: " + entry);
+            return null;
+        }
+        String upload = parts.length > 2 && !parts[2].trim().isEmpty() ? parts[2].trim() : null;
+        return new TestServer(parts[0].trim(), parts[1].trim(), upload);
+    }
+
+    /**
+     * Loads the configured servers from R.array.test_servers
+     */
+    public static List<TestServer> fromResources(Context context) {
+        List<TestServer> servers = new ArrayList<>();
+        for (String entry : context.getResources().getStringArray(R.array.test_servers)) {
+            TestServer server = parse(entry);
+            if (server != null) {
+                servers.add(server);
+            }
+        }
+        return servers;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Upload endpoint, or null if the server only serves downloads
+     */
+    public String getUploadUrl() {
+        return uploadUrl;
+    }
+
+    /**
+     * Host (with scheme for plain-HTTP servers) used for latency probes
+     */
+    public String getProbeTarget() {
+        return LatencyProbe.toTarget(downloadUrl);
+    }
+
+    /**
+     * Whether payload sizes must be requested with a Range header
+     */
+    public boolean usesRangeRequests() {
+        return !downloadUrl.contains(BYTES_PLACEHOLDER);
+    }
+
+    /**
+     * Download url for a payload of the given size (the static file url for Range-sized servers)
+     */
+    public String getDownloadUrl(long bytes) {
+        return downloadUrl.replace(BYTES_PLACEHOLDER, String.valueOf(bytes));
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof TestServer && downloadUrl.equals(((TestServer) other).downloadUrl);
+    }
+
+    @Override
+    public int hashCode() {
+        return downloadUrl.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.appspeedtest;
+
+import java.util.Arrays;
+
+/**
+ * Sliding-window throughput estimator.
+ * Read/write loops feed it (nanoTime, bytes) samples, which are summed into
+ * fixed-interval buckets kept in a primitive ring buffer. The TCP slow-start
+ * ramp is detected and dropped, and the stable phase is reported as mean,
+ * peak and percentile throughput.
+ * Safe to feed from several stream threads at once.
+ */
+public class ThroughputEstimator {
+
+    public static final long DEFAULT_BUCKET_MS = 100;
+
+    // Ramp-up is over once a window of buckets grows less than this over the previous one
+    private static final double RAMP_UP_GROWTH = 1.10;
+    private static final int RAMP_UP_WINDOW = 3;
+    // Never drop more than this share of the buckets as ramp-up
+    private static final double MAX_RAMP_UP_FRACTION = 0.5;
+    // Buckets averaged for the live rate
+    private static final int RECENT_BUCKETS = 3;
+    // Neighbouring buckets are correlated, so the confidence interval uses means of batches of buckets
+    private static final int BATCH_BUCKETS = 5;
+    private static final int MIN_BATCHES = 4;
+
+    private final long bucketMs;
+    private final long bucketNanos;
+    private final long[] buckets;
+
+    private long originNanos = -1;
+    private long headIndex = -1;
+    private long totalBytes;
+
+    public ThroughputEstimator(long bucketMs, long windowMs) {
+        this.bucketMs = bucketMs;
+        this.bucketNanos = bucketMs * 1_000_000;
+        this.buckets = new long[(int) Math.max(1, windowMs / bucketMs + 1)];
+    }
+
+    /**
+     * Adds bytes transferred at the given MeasurementCore.nanoTime(). The first sample marks the
+     * start of the transfer, so connection setup and the first-byte delay are
+     * not part of the window.
+     */
+    public synchronized void addSample(long timeNanos, long bytes) {
+        if (originNanos < 0) {
+            originNanos = timeNanos;
+        }
+        totalBytes += bytes;
+        // A stream can time its read just before another stream's first sample set the origin:
+        // those bytes belong to the first bucket, not in front of the window
+        long index = Math.max(0, (timeNanos - originNanos) / bucketNanos);
+        if (index > headIndex) {
+            // Clear the buckets we skipped over (and the ones being reused)
+            long from = Math.max(headIndex + 1, index - buckets.length + 1);
+            for (long i = from; i <= index; i++) {
+                buckets[(int) (i % buckets.length)] = 0;
+            }
+            headIndex = index;
+        } else if (index <= headIndex - buckets.length) {
+            // Too old for the window
+            return;
+        }
+        buckets[(int) (index % buckets.length)] += bytes;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Current rate over the most recent complete buckets, for live display.
+     * Buckets that received nothing (a stall) count as zero.
+     */
+    public synchronized double currentMbps() {
+        if (originNanos < 0) {
+            return 0;
+        }
+        long nowIndex = (MeasurementCore.nanoTime() - originNanos) / bucketNanos;
+        long from = Math.max(0, Math.max(nowIndex - RECENT_BUCKETS, headIndex - buckets.length + 1));
+        if (nowIndex <= from) {
+            return 0;
+        }
+        long bytes = 0;
+        for (long i = from; i < nowIndex && i <= headIndex; i++) {
+            bytes += buckets[(int) (i % buckets.length)];
+        }
+        return MeasurementCore.toMbps(bytes, (nowIndex - from) * bucketMs);
+    }
+
+    /**
+     * Returns the stable-phase estimate for the buckets currently in the window.
+     * The newest bucket is still filling and is left out.
+     */
+    public synchronized Estimate estimate() {
+        Estimate estimate = new Estimate();
+        if (headIndex < 1) {
+            return estimate;
+        }
+
+        long firstIndex = Math.max(0, headIndex - buckets.length + 1);
+        int count = (int) (headIndex - firstIndex);
+        double[] rates = new double[count];
+        for (int i = 0; i < count; i++) {
+            long bytes = buckets[(int) ((firstIndex + i) % buckets.length)];
+            rates[i] = MeasurementCore.toMbps(bytes, bucketMs);
+        }
+
+        // Ramp-up can only be seen while the start of the transfer is still in the window
+        int rampUpBuckets = firstIndex == 0 ? findRampUpEnd(rates) : 0;
+        double[] stable = Arrays.copyOfRange(rates, rampUpBuckets, count);
+        estimate.ciHalfWidthMbps = batchMeansHalfWidth(stable);
+        Arrays.sort(stable);
+
+        double sum = 0;
+        for (double rate : stable) {
+            sum += rate;
+        }
+
+        estimate.meanMbps = sum / stable.length;
+        estimate.peakMbps = stable[stable.length - 1];
+        estimate.medianMbps = percentile(stable, 50);
+        estimate.p90Mbps = percentile(stable, 90);
+        estimate.rampUpMs = rampUpBuckets * bucketMs;
+        estimate.stableMs = stable.length * bucketMs;
+        return estimate;
+    }
+
+    private static int findRampUpEnd(double[] rates) {
+        if (rates.length < 2 * RAMP_UP_WINDOW) {
+            // Too short to tell a ramp from noise
+            return 0;
+        }
+        int limit = (int) (rates.length * MAX_RAMP_UP_FRACTION);
+        for (int i = RAMP_UP_WINDOW; i + RAMP_UP_WINDOW <= rates.length && i <= limit; i++) {
+            double previous = windowSum(rates, i - RAMP_UP_WINDOW);
+            double current = windowSum(rates, i);
+            if (current < previous * RAMP_UP_GROWTH) {
+                return i - RAMP_UP_WINDOW;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * 95% confidence half-width of the mean, from non-overlapping batch means.
+     * Returns infinity while there are too few batches to tell.
+     */
+    private static double batchMeansHalfWidth(double[] rates) {
+        int batches = rates.length / BATCH_BUCKETS;
+        if (batches < MIN_BATCHES) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double[] means = new double[batches];
+        double sum = 0;
+        for (int b = 0; b < batches; b++) {
+            // Use the newest buckets, dropping the oldest remainder
+            int from = rates.length - (batches - b) * BATCH_BUCKETS;
+            double batchSum = 0;
+            for (int i = from; i < from + BATCH_BUCKETS; i++) {
+                batchSum += rates[i];
+            }
+            means[b] = batchSum / BATCH_BUCKETS;
+            sum += means[b];
+        }
+        double mean = sum / batches;
+        double squares = 0;
+        for (double m : means) {
+            squares += (m - mean) * (m - mean);
+        }
+        double standardError = Math.sqrt(squares / (batches - 1) / batches);
+        return 1.96 * standardError;
+    }
+
+    private static double windowSum(double[] rates, int from) {
+        double sum = 0;
+        for (int i = from; i < from + RAMP_UP_WINDOW; i++) {
+            sum += rates[i];
+        }
+        return sum;
+    }
+
+    static double percentile(double[] sorted, int percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    /**
+     * Stable-phase throughput figures
+     */
+    public static class Estimate {
+        public double meanMbps;
+        public double peakMbps;
+        public double medianMbps;
+        public double p90Mbps;
+        public long rampUpMs;
+        public long stableMs;
+        // 95% confidence half-width of meanMbps (infinite until enough data)
+        public double ciHalfWidthMbps = Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.appspeedtest;
+
+import android.util.Log;
+
+import okhttp3.Dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timing, caching DNS layer for the shared HTTP client.
+ * Resolves each host once and serves later lookups from a cache for a TTL,
+ * so latency and throughput samples no longer include DNS time. Resolution
+ * time is kept as its own metric: cold (the first lookup through the system
+ * resolver) and warm (a repeat lookup, served by the OS / network caches).
+ */
+public class TimedDns implements Dns {
+
+    private static final String TAG = "TimedDns";
+
+    // Long enough to cover a whole test run
+    public static final long DEFAULT_TTL_MS = 5 * 60 * 1000;
+    public static final long PRE_RESOLVE_TIMEOUT_MS = 5000;
+
+    private static final int PRE_RESOLVE_THREADS = 8;
+
+    private final Dns delegate;
+    private final long ttlMs;
+    private final Map<String, Resolution> cache = new ConcurrentHashMap<>();
+
+    public TimedDns() {
+        this(Dns.SYSTEM, DEFAULT_TTL_MS);
+    }
+
+    public TimedDns(Dns delegate, long ttlMs) {
+        this.delegate = delegate;
+        this.ttlMs = ttlMs;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Resolution cached = getResolution(hostname);
+        if (cached != null) {
+            cached.cacheHits.incrementAndGet();
+            return cached.addresses;
+        }
+        return resolve(hostname, false).addresses;
+    }
+
+    /**
+     * Cached resolution of the host, or null if it has not been resolved or has expired
+     */
+    public Resolution getResolution(String hostname) {
+        Resolution cached = cache.get(hostname);
+        if (cached != null && MeasurementCore.nanoTime() - cached.resolvedAtNanos < ttlMs * 1_000_000) {
+            return cached;
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the host through the system resolver, measuring cold and warm time, and caches it.
+     * A host already in the cache is returned as is.
+     */
+    public Resolution measure(String hostname) throws UnknownHostException {
+        Resolution cached = getResolution(hostname);
+        return cached != null ? cached : resolve(hostname, true);
+    }
+
+    /**
+     * Resolves all hosts in parallel so later phases start with hot addresses.
+     * Returns the resolutions that finished in time; failed hosts are left out.
+     */
+    public Map<String, Resolution> preResolve(Collection<String> hostnames) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(hostnames.size(), PRE_RESOLVE_THREADS)));
+        Map<String, Resolution> resolved = new ConcurrentHashMap<>();
+        for (String hostname : hostnames) {
+            executor.execute(() -> {
+                try {
+                    resolved.put(hostname, measure(hostname));
+                } catch (UnknownHostException e) {
+                    Log.e(TAG, "Could not resolve " + hostname);
+                }
+            });
+        }
+
+        executor.shutdown();
+        try {
+            executor.awaitTermination(PRE_RESOLVE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Resolution> result = new LinkedHashMap<>();
+        for (String hostname : hostnames) {
+            if (resolved.containsKey(hostname)) {
+                result.put(hostname, resolved.get(hostname));
+            }
+        }
+        Log.d(TAG, "Pre-resolved " + result.size() + "/" + hostnames.size() + " hosts");
+        return result;
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private Resolution resolve(String hostname, boolean measureWarm) throws UnknownHostException {
+        Resolution resolution = new Resolution(hostname);
+        long start = MeasurementCore.nanoTime();
+        resolution.addresses = delegate.lookup(hostname);
+        resolution.coldMs = (MeasurementCore.nanoTime() - start) / 1_000_000.0;
+
+        if (measureWarm) {
+            start = MeasurementCore.nanoTime();
+            try {
+                delegate.lookup(hostname);
+                resolution.warmMs = (MeasurementCore.nanoTime() - start) / 1_000_000.0;
+            } catch (UnknownHostException e) {
+                // Keep the cold result
+            }
+        }
+
+        resolution.resolvedAtNanos = MeasurementCore.nanoTime();
+        cache.put(hostname, resolution);
+        Log.d(TAG, hostname + ": cold " + resolution.coldMs + " ms, warm " + resolution.warmMs + " ms");
+        return resolution;
+    }
+
+    /**
+     * One cached resolution, times in milliseconds (-1 when not measured)
+     */
+    public static class Resolution {
+        public final String hostname;
+        public List<InetAddress> addresses;
+        public double coldMs = -1;
+        public double warmMs = -1;
+        // Lookups served from the cache instead of the resolver
+        public final AtomicInteger cacheHits = new AtomicInteger();
+        long resolvedAtNanos;
+
+        Resolution(String hostname) {
+            this.hostname = hostname;
+        }
+    }
+}
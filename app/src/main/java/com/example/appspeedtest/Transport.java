@@ -0,0 +1,53 @@
+package com.example.appspeedtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * One HTTP client backend that carries test traffic.
+ * Backends only move bytes: downloads hand the raw body stream to MeasurementCore
+ * and uploads take their body from a StreamingUploadEngine, so the measurement is
+ * the same whichever backend carries it. SpeedTestManager picks one backend per run.
+ */
+public interface Transport {
+
+    long WARM_UP_TIMEOUT_MS = 5000;
+
+    /**
+     * Registers network I/O in flight so a running test can be aborted
+     */
+    interface CallTracker {
+        /**
+         * Registers the abort action; throws (after running it) if the test is already cancelled
+         */
+        Closeable track(Closeable abort) throws IOException;
+
+        void untrack(Closeable handle);
+    }
+
+    String getName();
+
+    /**
+     * Whether this backend can carry the url at all (scheme, proxy, platform support)
+     */
+    boolean supports(String url);
+
+    /**
+     * Opens and handshakes connections to the url's host before a timed phase starts,
+     * so setup is not counted in the throughput. Returns the number of connections opened.
+     */
+    int warmUp(String url, int connections);
+
+    /**
+     * GETs the url and returns its body. With rangeBytes > 0 only the first rangeBytes
+     * bytes are requested (Range header). Closing the stream releases the connection.
+     */
+    InputStream openDownload(String url, long rangeBytes) throws IOException;
+
+    /**
+     * POSTs the engine's body to the url and returns the MeasurementCore.nanoTime()
+     * at which the server acknowledged it. Throws if the server did not accept it.
+     */
+    long upload(String url, StreamingUploadEngine engine) throws IOException;
+}
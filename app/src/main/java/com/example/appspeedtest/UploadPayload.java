@@ -0,0 +1,64 @@
+package com.example.appspeedtest;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Upload body material: one block of random bytes, built once per process and only
+ * ever read, so any number of concurrent upload streams can share it. Bodies of any
+ * length cycle through the block. The block is larger than the history window of
+ * common compressors (deflate 32 KB, LZ4 64 KB), so a compressing proxy cannot
+ * shrink the upload and inflate the result.
+ */
+public class UploadPayload {
+
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    // Bytes per write into an Okio sink: six 8 KB segments which, with the chunk framing,
+    // still fit Okio's 64 KB segment pool, so the OkHttp path sends the body without allocating.
+    // Segment-sized writes allocate nothing either but double the CPU per byte in MeasurementBenchmark.
+    public static final int CHUNK_SIZE = 48 * 1024;
+
+    // Distance between the start offsets of successive streams, so concurrent
+    // streams do not send the same bytes in step
+    private static final int STREAM_STRIDE = 37 * 8 * 1024;
+
+    private static volatile UploadPayload shared;
+
+    private final byte[] block;
+    private final AtomicInteger streams = new AtomicInteger();
+
+    private UploadPayload(byte[] block) {
+        this.block = block;
+    }
+
+    /**
+     * Returns the process-wide payload, building its block on first use
+     */
+    public static UploadPayload getShared() {
+        if (shared == null) {
+            synchronized (UploadPayload.class) {
+                if (shared == null) {
+                    byte[] block = new byte[BLOCK_SIZE];
+                    new Random().nextBytes(block);
+                    shared = new UploadPayload(block);
+                }
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * The shared block; read only
+     */
+    byte[] getBlock() {
+        return block;
+    }
+
+    /**
+     * Block offset at which the next stream starts
+     */
+    public int nextOffset() {
+        return (int) ((long) streams.getAndIncrement() * STREAM_STRIDE % block.length);
+    }
+}
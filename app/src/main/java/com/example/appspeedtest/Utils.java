@@ -3,11 +3,52 @@ package com.example.appspeedtest;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
 import android.net.NetworkCapabilities;
+import android.net.RouteInfo;
 import android.telephony.TelephonyManager;
 
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class Utils {
 
+    /**
+     * Service name to the CDN domain used for its tests
+     */
+    public static Map<String, String> getServiceDomains() {
+        Map<String, String> domains = new LinkedHashMap<>();
+        domains.put("WhatsApp", "web.whatsapp.com");
+        domains.put("Facebook", "scontent.xx.fbcdn.net");
+        domains.put("TikTok", "v16m.tiktokcdn.com");
+        domains.put("YouTube", "googlevideo.com");
+        domains.put("Instagram", "scontent.cdninstagram.com");
+        domains.put("Twitter", "pbs.twimg.com");
+        return domains;
+    }
+
+    /**
+     * Network type as shown to the user and stored in the history
+     */
+    public static String getNetworkType(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm != null) {
+            NetworkCapabilities capabilities = cm.getNetworkCapabilities(cm.getActiveNetwork());
+            if (capabilities != null) {
+                if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+                    return "WiFi";
+                } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                    return "Mobile Data";
+                } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+                    return "Ethernet";
+                }
+            }
+        }
+        return "Unknown";
+    }
+
     public static String getISPName(Context context) {
         try {
             TelephonyManager manager = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
@@ -17,4 +58,42 @@ public class Utils {
             return "Unknown ISP";
         }
     }
+
+    /**
+     * Identifies the current network for per-network caches: the carrier on mobile data,
+     * otherwise the interface, default gateway and DNS servers. Those stay the same across
+     * reconnects to one network, unlike the Network handle, and need no location
+     * permission, unlike Wi-Fi SSIDs.
+     */
+    public static String getNetworkKey(Context context) {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            Network network = cm.getActiveNetwork();
+            NetworkCapabilities capabilities = cm.getNetworkCapabilities(network);
+            if (network == null || capabilities == null) {
+                return "none";
+            }
+            if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+                return "cellular:" + getISPName(context);
+            }
+            String transport = capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI) ? "wifi"
+                    : capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET) ? "ethernet" : "other";
+            StringBuilder key = new StringBuilder(transport);
+            LinkProperties link = cm.getLinkProperties(network);
+            if (link != null) {
+                key.append(':').append(link.getInterfaceName());
+                for (RouteInfo route : link.getRoutes()) {
+                    if (route.isDefaultRoute() && route.getGateway() != null) {
+                        key.append(":gw=").append(route.getGateway().getHostAddress());
+                    }
+                }
+                for (InetAddress dns : link.getDnsServers()) {
+                    key.append(":dns=").append(dns.getHostAddress());
+                }
+            }
+            return key.toString();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
 }
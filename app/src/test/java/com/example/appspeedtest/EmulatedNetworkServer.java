@@ -0,0 +1,532 @@
+package com.example.appspeedtest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.net.SocketFactory;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+
+/**
+ * Local HTTP/1.1 server that emulates a network link for the measurement engines.
+ * Downloads (GET /down?bytes=N, or a Range request) and uploads (POST /up, echoing
+ * the byte count) are paced by one shared rate limiter per direction, every response
+ * waits a fixed plus random latency, and a share of requests can be dropped or
+ * stalled mid-body. Runs on loopback, where the TCP handshake takes near 0 ms, so
+ * the client sockets from newClient() wait one emulated latency before connecting:
+ * like every request, the handshake then costs one round trip of the emulated link.
+ */
+public class EmulatedNetworkServer implements Closeable {
+
+    public static final long DEFAULT_DOWNLOAD_BYTES = 100_000_000L;
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // Small socket buffers so the sender cannot run far ahead of the emulated link
+    private static final int SOCKET_BUFFER_SIZE = 64 * 1024;
+    // A dropped request is held this long (past every probe timeout) and then reset
+    private static final long DROP_HOLD_MS = 5000;
+
+    private static final byte[] PAYLOAD = createPayload();
+
+    private final RateLimiter downloadLimiter = new RateLimiter();
+    private final RateLimiter uploadLimiter = new RateLimiter();
+    private final Random random = new Random(42);
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "EmulatedNetworkServer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long latencyMs;
+    private volatile long jitterMs;
+    private volatile double lossRatio;
+    private volatile long stallEveryBytes;
+    private volatile long stallMs;
+    private double lossCredit;
+
+    private ServerSocket serverSocket;
+
+    /**
+     * Download bandwidth shared by every connection (0 = unlimited)
+     */
+    public EmulatedNetworkServer setDownloadMbps(double mbps) {
+        downloadLimiter.mbps = mbps;
+        return this;
+    }
+
+    /**
+     * Upload bandwidth shared by every connection (0 = unlimited)
+     */
+    public EmulatedNetworkServer setUploadMbps(double mbps) {
+        uploadLimiter.mbps = mbps;
+        return this;
+    }
+
+    /**
+     * Fixed delay before every response
+     */
+    public EmulatedNetworkServer setLatencyMs(long latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /**
+     * Extra random delay, uniform in [0, jitterMs), added to the fixed latency
+     */
+    public EmulatedNetworkServer setJitterMs(long jitterMs) {
+        this.jitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * Share of requests that never get a response. Drops are spread evenly
+     * (0.25 drops every 4th request), so tests can expect exact counts.
+     */
+    public EmulatedNetworkServer setLossRatio(double lossRatio) {
+        this.lossRatio = lossRatio;
+        return this;
+    }
+
+    /**
+     * Pauses each download body for stallMs after every everyBytes bytes (0 = never)
+     */
+    public EmulatedNetworkServer setStall(long everyBytes, long stallMs) {
+        this.stallEveryBytes = everyBytes;
+        this.stallMs = stallMs;
+        return this;
+    }
+
+    /**
+     * Starts accepting connections on a free loopback port
+     */
+    public synchronized EmulatedNetworkServer start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReceiveBufferSize(SOCKET_BUFFER_SIZE);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        workers.execute(this::acceptLoop);
+        return this;
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    public String getDownloadUrl(long bytes) {
+        return getBaseUrl() + "/down?bytes=" + bytes;
+    }
+
+    public String getUploadUrl() {
+        return getBaseUrl() + "/up";
+    }
+
+    /**
+     * This server as a test server entry, so SpeedTestManager can be pointed at it
+     */
+    public TestServer asTestServer() {
+        return new TestServer("Emulated", getBaseUrl() + "/down?bytes=" + TestServer.BYTES_PLACEHOLDER,
+                getUploadUrl());
+    }
+
+    /**
+     * Client for the engines under test, with its own connection pool. Loopback has no
+     * bottleneck queue, so the kernel would let an uploader buffer megabytes ahead of the
+     * emulated link; on a real link the send buffer stays near a few bandwidth-delay
+     * products, so the client's send buffer is capped to match.
+     */
+    public OkHttpClient newClient() {
+        return SpeedTestManager.getSharedClient().newBuilder()
+                .connectionPool(new ConnectionPool(MeasurementCore.MAX_STREAMS, 5, TimeUnit.MINUTES))
+                .socketFactory(new BoundedSocketFactory())
+                .build();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // Already closed
+        }
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        workers.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+                sockets.add(socket);
+                workers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    /**
+     * Answers requests on one keep-alive connection until the client goes away
+     */
+    private void serve(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            while (true) {
+                Request request = Request.read(in);
+                if (request == null) {
+                    return;
+                }
+                if (shouldDrop()) {
+                    sleepMs(DROP_HOLD_MS);
+                    return;
+                }
+                long bodyBytes = "POST".equals(request.method) ? receiveBody(in, request) : 0;
+                sleepMs(nextDelayMs());
+
+                boolean head = "HEAD".equals(request.method);
+                if (request.path.startsWith("/up")) {
+                    byte[] body = ("received " + bodyBytes).getBytes(StandardCharsets.US_ASCII);
+                    writeHead(out, 200, body.length);
+                    if (!head) {
+                        out.write(body);
+                    }
+                } else if (request.path.startsWith("/down")) {
+                    long[] range = request.range();
+                    long bytes = range != null ? range[1] - range[0] + 1 : request.queryLong("bytes",
+                            DEFAULT_DOWNLOAD_BYTES);
+                    writeHead(out, range != null ? 206 : 200, bytes);
+                    if (!head) {
+                        sendBody(out, bytes);
+                    }
+                } else {
+                    writeHead(out, head ? 200 : 404, 0);
+                }
+                out.flush();
+                if (request.closeAfter) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private synchronized boolean shouldDrop() {
+        lossCredit += lossRatio;
+        if (lossCredit >= 1 - 1e-9) {
+            lossCredit -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * One round trip of the emulated link: the fixed latency plus a fresh jitter draw
+     */
+    private long nextDelayMs() {
+        return latencyMs + (jitterMs > 0 ? nextLong(jitterMs) : 0);
+    }
+
+    private synchronized long nextLong(long bound) {
+        return (long) (random.nextDouble() * bound);
+    }
+
+    private void sendBody(OutputStream out, long bytes) throws IOException {
+        long sent = 0;
+        long nextStall = stallEveryBytes > 0 ? stallEveryBytes : Long.MAX_VALUE;
+        while (sent < bytes) {
+            int length = (int) Math.min(CHUNK_SIZE, Math.min(bytes - sent, nextStall - sent));
+            downloadLimiter.acquire(length);
+            out.write(PAYLOAD, 0, length);
+            sent += length;
+            if (sent == nextStall) {
+                out.flush();
+                sleepMs(stallMs);
+                nextStall += stallEveryBytes;
+            }
+        }
+    }
+
+    /**
+     * Reads a Content-Length or chunked request body at the upload rate
+     */
+    private long receiveBody(InputStream in, Request request) throws IOException {
+        if (request.chunked) {
+            long total = 0;
+            while (true) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new IOException("Unexpected end of chunked body");
+                }
+                long size = Long.parseLong(sizeLine.split(";")[0].trim(), 16);
+                if (size == 0) {
+                    // Trailers, then the blank line
+                    String trailer;
+                    do {
+                        trailer = readLine(in);
+                    } while (trailer != null && !trailer.isEmpty());
+                    return total;
+                }
+                discard(in, size);
+                readLine(in);
+                total += size;
+            }
+        }
+        discard(in, request.contentLength);
+        return request.contentLength;
+    }
+
+    private void discard(InputStream in, long bytes) throws IOException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long remaining = bytes;
+        while (remaining > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of body");
+            }
+            // Charged after the read, for the bytes that actually arrived
+            uploadLimiter.acquire(read);
+            remaining -= read;
+        }
+    }
+
+    private static void writeHead(OutputStream out, int code, long contentLength) throws IOException {
+        String reason = code == 200 ? "OK" : code == 206 ? "Partial Content" : "Not Found";
+        String head = "HTTP/1.1 " + code + " " + reason + "\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "Content-Length: " + contentLength + "\r\n"
+                + "Cache-Control: no-store\r\n"
+                + "\r\n";
+        out.write(head.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Reads one CRLF-terminated line, or returns null at the end of the stream
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0) {
+            if (b == '\n') {
+                String text = line.toString("US-ASCII");
+                return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+            }
+            line.write(b);
+        }
+        return null;
+    }
+
+    private static void sleepMs(long ms) throws IOException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Server stopped");
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private static byte[] createPayload() {
+        byte[] payload = new byte[CHUNK_SIZE];
+        new Random(7).nextBytes(payload);
+        return payload;
+    }
+
+    /**
+     * Paces bytes to a bit rate; every caller queues behind the bytes already granted,
+     * so concurrent connections share the bandwidth like one bottleneck link
+     */
+    private static class RateLimiter {
+        volatile double mbps;
+        private long nextFreeNanos;
+
+        void acquire(int bytes) {
+            double rate = mbps;
+            if (rate <= 0) {
+                return;
+            }
+            long costNanos = (long) (bytes * 8_000.0 / rate);
+            long wakeAt;
+            synchronized (this) {
+                nextFreeNanos = Math.max(nextFreeNanos, System.nanoTime()) + costNanos;
+                wakeAt = nextFreeNanos;
+            }
+            long remaining;
+            while ((remaining = wakeAt - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Plain sockets with a small send buffer, whose connect takes one emulated round trip
+     */
+    private class BoundedSocketFactory extends SocketFactory {
+
+        @Override
+        public Socket createSocket() throws SocketException {
+            Socket socket = new Socket() {
+                @Override
+                public void connect(SocketAddress endpoint, int timeout) throws IOException {
+                    try {
+                        Thread.sleep(nextDelayMs());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Connect interrupted");
+                    }
+                    super.connect(endpoint, timeout);
+                }
+            };
+            socket.setSendBufferSize(SOCKET_BUFFER_SIZE);
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            Socket socket = createSocket();
+            socket.connect(new InetSocketAddress(host, port));
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort)
+                throws IOException {
+            Socket socket = createSocket();
+            socket.bind(new InetSocketAddress(localHost, localPort));
+            socket.connect(new InetSocketAddress(host, port));
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            Socket socket = createSocket();
+            socket.connect(new InetSocketAddress(host, port));
+            return socket;
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            Socket socket = createSocket();
+            socket.bind(new InetSocketAddress(localAddress, localPort));
+            socket.connect(new InetSocketAddress(address, port));
+            return socket;
+        }
+    }
+
+    /**
+     * Request line and the few headers the emulator cares about
+     */
+    private static class Request {
+        String method;
+        String path;
+        String rangeHeader;
+        long contentLength;
+        boolean chunked;
+        boolean closeAfter;
+
+        static Request read(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            Request request = new Request();
+            request.method = parts[0];
+            request.path = parts.length > 1 ? parts[1] : "/";
+
+            String header;
+            while ((header = readLine(in)) != null && !header.isEmpty()) {
+                int colon = header.indexOf(':');
+                if (colon < 0) continue;
+                String name = header.substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = header.substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    request.contentLength = Long.parseLong(value);
+                } else if (name.equals("transfer-encoding")) {
+                    request.chunked = value.toLowerCase(Locale.US).contains("chunked");
+                } else if (name.equals("connection")) {
+                    request.closeAfter = value.equalsIgnoreCase("close");
+                } else if (name.equals("range")) {
+                    request.rangeHeader = value;
+                }
+            }
+            return request;
+        }
+
+        long queryLong(String name, long fallback) {
+            int query = path.indexOf('?');
+            if (query < 0) {
+                return fallback;
+            }
+            for (String pair : path.substring(query + 1).split("&")) {
+                if (pair.startsWith(name + "=")) {
+                    try {
+                        return Long.parseLong(pair.substring(name.length() + 1));
+                    } catch (NumberFormatException e) {
+                        return fallback;
+                    }
+                }
+            }
+            return fallback;
+        }
+
+        /**
+         * First and last byte of a "bytes=first-last" range, or null
+         */
+        long[] range() {
+            if (rangeHeader == null || !rangeHeader.startsWith("bytes=")) {
+                return null;
+            }
+            String[] bounds = rangeHeader.substring("bytes=".length()).split("-");
+            try {
+                return new long[]{Long.parseLong(bounds[0]), Long.parseLong(bounds[1])};
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package com.example.appspeedtest;
+
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Microbenchmarks for the measurement hot paths, run on a plain JVM:
+ * the read and write loops on in-memory streams, the statistics code, and
+ * downloads / uploads against a loopback EmulatedNetworkServer with each client.
+ * Reports client CPU time per byte (or per operation) and allocation, so a change
+ * can be compared before and after. Skipped unless -Dspeedtest.benchmark=true
+ * (./gradlew testDebugUnitTest -Pbenchmark --tests "*MeasurementBenchmark").
+ * Loopback runs only meter the client's threads, not the server's.
+ */
+public class MeasurementBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURED_ITERATIONS = 5;
+
+    private static final int[] BUFFER_SIZES = {8 * 1024, 16 * 1024, 64 * 1024, 256 * 1024};
+    private static final int[] STREAM_COUNTS = {1, 4};
+    private static final long IN_MEMORY_BYTES = 512L * 1024 * 1024;
+    private static final long LOOPBACK_MS = 2000;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static EmulatedNetworkServer server;
+    private static SpeedTestManager manager;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        Assume.assumeTrue("Benchmarks run with -Dspeedtest.benchmark=true", Boolean.getBoolean("speedtest.benchmark"));
+        server = new EmulatedNetworkServer().start();
+        manager = new SpeedTestManager(server.newClient());
+        System.out.println(String.format(Locale.US, "%-44s %30s %15s %12s %10s",
+                "Benchmark", "CPU", "Alloc", "Alloc rate", "Mbps"));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void readLoop() throws Exception {
+        for (int bufferSize : BUFFER_SIZES) {
+            MeasurementCore core = new MeasurementCore(bufferSize);
+            run("read  buffer=" + kb(bufferSize), Unit.BYTE, meter -> {
+                MeasurementCore.Span span = new MeasurementCore.Span();
+                core.read(new UnfilledInputStream(IN_MEMORY_BYTES), farDeadline(), newEstimator(), span);
+                return span.bytes;
+            });
+        }
+    }
+
+    @Test
+    public void writeLoop() throws Exception {
+        for (int payloadSize : BUFFER_SIZES) {
+            MeasurementCore core = new MeasurementCore(payloadSize);
+            byte[] payload = new byte[payloadSize];
+            new Random(1).nextBytes(payload);
+            run("write payload=" + kb(payloadSize), Unit.BYTE, meter -> {
+                MeasurementCore.Span span = new MeasurementCore.Span();
+                core.write(NULL_OUTPUT, payload, farDeadline(), IN_MEMORY_BYTES, newEstimator(), span);
+                return span.bytes;
+            });
+        }
+    }
+
+    @Test
+    public void uploadBodyGeneration() throws Exception {
+        run("upload body (StreamingUploadEngine)", Unit.BYTE, meter -> {
+            StreamingUploadEngine engine = new StreamingUploadEngine(60_000, IN_MEMORY_BYTES);
+            return engine.writeBody(NULL_OUTPUT);
+        });
+    }
+
+    @Test
+    public void statistics() throws Exception {
+        int samples = 100_000;
+        run("estimator addSample", Unit.OP, meter -> {
+            ThroughputEstimator estimator = newEstimator();
+            long now = 0;
+            for (int i = 0; i < samples; i++) {
+                now += 100_000;
+                estimator.addSample(now, 16 * 1024);
+            }
+            return samples;
+        });
+
+        ThroughputEstimator filled = newEstimator();
+        for (int i = 0; i < 100_000; i++) {
+            filled.addSample(i * 100_000L, 16 * 1024 + (i % 7) * 1024);
+        }
+        int estimates = 10_000;
+        run("estimator estimate (100 buckets)", Unit.OP, meter -> {
+            for (int i = 0; i < estimates; i++) {
+                filled.estimate();
+            }
+            return estimates;
+        });
+
+        double[] rtts = new double[LatencySampler.DEFAULT_COUNT * 10];
+        Random random = new Random(3);
+        for (int i = 0; i < rtts.length; i++) {
+            rtts[i] = i % 17 == 0 ? -1 : 20 + random.nextDouble() * 30;
+        }
+        int computations = 100_000;
+        run("latency stats (" + rtts.length + " probes)", Unit.OP, meter -> {
+            for (int i = 0; i < computations; i++) {
+                LatencySampler.Stats.compute(rtts);
+            }
+            return computations;
+        });
+    }
+
+    @Test
+    public void loopbackDownload() throws Exception {
+        for (Transport transport : manager.getTransports()) {
+            for (int streams : STREAM_COUNTS) {
+                for (int bufferSize : new int[]{16 * 1024, 64 * 1024}) {
+                    MeasurementCore core = new MeasurementCore(bufferSize);
+                    String url = server.getDownloadUrl(EmulatedNetworkServer.DEFAULT_DOWNLOAD_BYTES);
+                    run("download " + transport.getName() + " streams=" + streams + " buffer=" + kb(bufferSize), Unit.BYTE,
+                            meter -> {
+                                ParallelDownloadEngine engine = new ParallelDownloadEngine(
+                                        () -> meter.wrap(transport.openDownload(url, 0)), streams, LOOPBACK_MS, core);
+                                return engine.run().totalBytes;
+                            });
+                }
+            }
+        }
+    }
+
+    @Test
+    public void loopbackUpload() throws Exception {
+        Transport selected = manager.getTransport();
+        try {
+            for (Transport transport : manager.getTransports()) {
+                manager.setTransport(transport);
+                run("upload " + transport.getName(), Unit.BYTE, meter -> manager.testStreamingUploadSpeed(
+                        server.getUploadUrl(), LOOPBACK_MS, StreamingUploadEngine.UNLIMITED).totalBytes);
+            }
+        } finally {
+            manager.setTransport(selected);
+        }
+    }
+
+    /**
+     * Runs the warm-up and measured iterations and prints one result line
+     */
+    private static void run(String name, Unit unit, Workload workload) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            iteration(workload);
+        }
+        double[] cpuPerUnit = new double[MEASURED_ITERATIONS];
+        double allocPerUnit = 0;
+        double allocPerSecond = 0;
+        double mbps = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            Meter meter = iteration(workload);
+            cpuPerUnit[i] = (double) meter.cpuNanos.get() / meter.units;
+            allocPerUnit += (double) meter.allocatedBytes.get() / meter.units / MEASURED_ITERATIONS;
+            allocPerSecond += meter.allocatedBytes.get() / (meter.wallNanos / 1e9) / MEASURED_ITERATIONS;
+            mbps += unit == Unit.BYTE ? meter.units * 8 / (meter.wallNanos / 1e3) / MEASURED_ITERATIONS : 0;
+        }
+
+        double mean = 0;
+        for (double value : cpuPerUnit) mean += value / cpuPerUnit.length;
+        double variance = 0;
+        for (double value : cpuPerUnit) variance += (value - mean) * (value - mean) / (cpuPerUnit.length - 1);
+
+        System.out.println(String.format(Locale.US, "%-44s %10.4f +/- %-8.4f %s %10.2f %-4s %7.1f MB/s %10s",
+                name, mean, Math.sqrt(variance), unit.cpuLabel, allocPerUnit * unit.allocScale, unit.allocLabel,
+                allocPerSecond / 1e6, unit == Unit.BYTE ? String.format(Locale.US, "%.0f", mbps) : "-"));
+    }
+
+    private static Meter iteration(Workload workload) throws Exception {
+        Meter meter = new Meter();
+        long start = System.nanoTime();
+        ThreadSnapshot self = ThreadSnapshot.take();
+        meter.units = workload.run(meter);
+        self.addElapsedTo(meter);
+        meter.wallNanos = System.nanoTime() - start;
+        return meter;
+    }
+
+    private static MeasurementCore.Deadline farDeadline() {
+        return new MeasurementCore.Deadline(Long.MAX_VALUE);
+    }
+
+    private static ThroughputEstimator newEstimator() {
+        return new ThroughputEstimator(ThroughputEstimator.DEFAULT_BUCKET_MS, 10_000);
+    }
+
+    private static String kb(int bytes) {
+        return bytes / 1024 + "K";
+    }
+
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private enum Unit {
+        BYTE("ns/byte", "B/MB", 1_000_000),
+        OP("ns/op  ", "B/op", 1);
+
+        final String cpuLabel;
+        final String allocLabel;
+        final double allocScale;
+
+        Unit(String cpuLabel, String allocLabel, double allocScale) {
+            this.cpuLabel = cpuLabel;
+            this.allocLabel = allocLabel;
+            this.allocScale = allocScale;
+        }
+    }
+
+    /**
+     * One benchmark iteration; returns the bytes moved or operations done
+     */
+    private interface Workload {
+        long run(Meter meter) throws Exception;
+    }
+
+    /**
+     * CPU time and allocation of every thread that took part in one iteration
+     */
+    private static class Meter {
+        final AtomicLong cpuNanos = new AtomicLong();
+        final AtomicLong allocatedBytes = new AtomicLong();
+        long units;
+        long wallNanos;
+
+        /**
+         * Meters the engine thread that reads the stream, from open until close
+         */
+        InputStream wrap(InputStream in) {
+            ThreadSnapshot snapshot = ThreadSnapshot.take();
+            if (in instanceof MeasurementCore.DiscardingSource) {
+                // Keep the copy-free path visible to MeasurementCore.read
+                return new MeteredDiscardingStream(in, snapshot);
+            }
+            return new MeteredStream(in, snapshot);
+        }
+
+        private class MeteredStream extends FilterInputStream {
+            private final ThreadSnapshot snapshot;
+
+            MeteredStream(InputStream in, ThreadSnapshot snapshot) {
+                super(in);
+                this.snapshot = snapshot;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    snapshot.addElapsedTo(Meter.this);
+                }
+            }
+        }
+
+        private class MeteredDiscardingStream extends MeteredStream implements MeasurementCore.DiscardingSource {
+            MeteredDiscardingStream(InputStream in, ThreadSnapshot snapshot) {
+                super(in, snapshot);
+            }
+
+            @Override
+            public long discard(long maxBytes) throws IOException {
+                return ((MeasurementCore.DiscardingSource) in).discard(maxBytes);
+            }
+        }
+    }
+
+    /**
+     * CPU time and allocated bytes of the current thread at one point
+     */
+    private static class ThreadSnapshot {
+        final long cpuNanos;
+        final long allocatedBytes;
+
+        private ThreadSnapshot(long cpuNanos, long allocatedBytes) {
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        static ThreadSnapshot take() {
+            return new ThreadSnapshot(THREADS.getCurrentThreadCpuTime(), currentThreadAllocatedBytes());
+        }
+
+        /**
+         * Must run on the thread that took the snapshot
+         */
+        void addElapsedTo(Meter meter) {
+            meter.cpuNanos.addAndGet(THREADS.getCurrentThreadCpuTime() - cpuNanos);
+            meter.allocatedBytes.addAndGet(currentThreadAllocatedBytes() - allocatedBytes);
+        }
+
+        private static long currentThreadAllocatedBytes() {
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) THREADS)
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Reports reads of the full requested length without touching the buffer,
+     * so only the loop's own cost is measured, not a memory copy
+     */
+    private static class UnfilledInputStream extends InputStream {
+        private long remaining;
+
+        UnfilledInputStream(long bytes) {
+            this.remaining = bytes;
+        }
+
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = (int) Math.min(len, remaining);
+            remaining -= read;
+            return read;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.appspeedtest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the measurement engines against an emulated link and checks that they
+ * report what the link was set up to deliver.
+ */
+public class SpeedTestAccuracyTest {
+
+    private static final double RATE_TOLERANCE = 0.12;
+    private static final long PHASE_MS = 4000;
+
+    private EmulatedNetworkServer server;
+    private SpeedTestManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new EmulatedNetworkServer().start();
+        manager = new SpeedTestManager(server.newClient());
+        manager.setDefaultServer(server.asTestServer());
+    }
+
+    @After
+    public void tearDown() {
+        manager.cancel();
+        server.close();
+    }
+
+    @Test
+    public void download_50MbpsLink_isReportedWithinTolerance() {
+        server.setDownloadMbps(50).setLatencyMs(40);
+
+        SpeedTestManager.DownloadResult result = manager.testParallelDownloadSpeed(
+                server.getDownloadUrl(5_000_000), 4, PHASE_MS);
+
+        assertWithin(50, result.speedMbps, RATE_TOLERANCE);
+    }
+
+    @Test
+    public void plannedDownload_usesConfiguredServer() {
+        server.setDownloadMbps(50).setLatencyMs(40);
+
+        SpeedTestManager.DownloadResult result = manager.testGeneralDownload();
+
+        assertNotNull(result.plan);
+        assertWithin(50, result.speedMbps, RATE_TOLERANCE);
+    }
+
+    @Test
+    public void everyTransport_reportsTheSameDownloadLink() {
+        server.setDownloadMbps(50).setLatencyMs(40);
+
+        for (Transport transport : manager.getTransports()) {
+            manager.setTransport(transport);
+            SpeedTestManager.DownloadResult result = manager.testParallelDownloadSpeed(
+                    server.getDownloadUrl(5_000_000), 4, PHASE_MS);
+            assertWithin(50, result.speedMbps, RATE_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void everyTransport_reportsTheSameUploadLink() {
+        // Only the OkHttp client has the harness's small send buffer: the NIO and
+        // HttpURLConnection sockets buffer far ahead of the link on loopback, which the
+        // acknowledgement-bounded window has to absorb
+        server.setUploadMbps(20).setLatencyMs(40);
+
+        for (Transport transport : manager.getTransports()) {
+            manager.setTransport(transport);
+            SpeedTestManager.UploadResult result = manager.testParallelUploadSpeed(
+                    server.getUploadUrl(), 4, PHASE_MS);
+            assertWithin(20, result.speedMbps, RATE_TOLERANCE);
+        }
+    }
+
+    @Test
+    public void selectTransport_picksFirstWorkingBackend() {
+        assertSame(manager.getTransports().get(0), manager.selectTransport());
+        assertSame(manager.getTransports().get(0), manager.getTransport());
+    }
+
+    @Test
+    public void latency_40msLink_showsInTimeToFirstByte() {
+        warmUpProbePath();
+        server.setLatencyMs(40);
+
+        SpeedTestManager.LatencyResult result = manager.testLatency(server.getBaseUrl(), 5, 100);
+
+        assertEquals(0, result.lossRatio, 0);
+        // Ceilings leave room for scheduling delays on a loaded test machine
+        for (LatencyProbe.Timing timing : result.probes) {
+            assertTrue(timing.success);
+            assertTrue("ttfb " + timing.ttfbMs, timing.ttfbMs >= 39 && timing.ttfbMs < 40 + 50);
+        }
+        // The reported figures come from the connect round trip
+        assertTrue("average " + result.average, result.average >= 39 && result.average < 40 + 50);
+        assertEquals(40, result.median, 10);
+        assertTrue("jitter " + result.jitter, result.jitter < 20);
+    }
+
+    @Test
+    public void latency_jitter_staysInsideConfiguredSpread() {
+        warmUpProbePath();
+        server.setLatencyMs(20).setJitterMs(40);
+
+        SpeedTestManager.LatencyResult result = manager.testLatency(server.getBaseUrl(), 8, 100);
+
+        // Ceilings leave room for scheduling delays on a loaded test machine
+        for (LatencyProbe.Timing timing : result.probes) {
+            assertTrue("rtt " + timing.rttMs(), timing.rttMs() >= 19 && timing.rttMs() < 20 + 40 + 50);
+            assertTrue("ttfb " + timing.ttfbMs, timing.ttfbMs >= 19 && timing.ttfbMs < 20 + 40 + 50);
+        }
+        assertTrue("jitter " + result.jitter, result.jitter > 0);
+        assertTrue("jitter " + result.jitter, result.jitter < 40);
+    }
+
+    @Test
+    public void latency_droppedProbes_areCountedAsLoss() {
+        server.setLossRatio(0.25);
+
+        SpeedTestManager.LatencyResult result = manager.testLatency(server.getBaseUrl(), 8, 100);
+
+        assertEquals(0.25, result.lossRatio, 1e-9);
+    }
+
+    @Test
+    public void upload_20MbpsLink_isReportedWithinTolerance() {
+        server.setUploadMbps(20).setLatencyMs(40);
+
+        SpeedTestManager.UploadResult result = manager.testStreamingUploadSpeed(
+                server.getUploadUrl(), PHASE_MS, StreamingUploadEngine.UNLIMITED);
+
+        assertTrue(result.totalBytes > 0);
+        assertWithin(20, result.speedMbps, RATE_TOLERANCE);
+    }
+
+    @Test
+    public void parallelUpload_20MbpsLink_isSharedByAllStreams() {
+        server.setUploadMbps(20).setLatencyMs(40);
+
+        SpeedTestManager.UploadResult result = manager.testParallelUploadSpeed(server.getUploadUrl(), 4, PHASE_MS);
+
+        assertWithin(20, result.speedMbps, RATE_TOLERANCE);
+        assertEquals(4, result.streamSpeedsMbps.length);
+        double sum = 0;
+        for (double streamMbps : result.streamSpeedsMbps) {
+            assertTrue("stream " + streamMbps, streamMbps > 0);
+            sum += streamMbps;
+        }
+        assertWithin(20, sum, RATE_TOLERANCE);
+    }
+
+    @Test
+    public void duplex_independentDirections_keepTheirIsolatedRates() {
+        // The emulated link paces each direction on its own, so neither slows the other
+        server.setDownloadMbps(50).setUploadMbps(20).setLatencyMs(40);
+
+        SpeedTestManager.DuplexResult result = manager.testDuplex();
+
+        assertWithin(50, result.isolatedDownloadMbps, RATE_TOLERANCE);
+        assertWithin(20, result.isolatedUploadMbps, RATE_TOLERANCE);
+        assertWithin(50, result.download.speedMbps, RATE_TOLERANCE);
+        assertWithin(20, result.upload.speedMbps, RATE_TOLERANCE);
+        assertWithin(1, result.downloadRatio, RATE_TOLERANCE);
+        assertWithin(1, result.uploadRatio, RATE_TOLERANCE);
+        assertNotNull(result.loadedLatency);
+        assertTrue(result.loadedLatency.received > 0);
+    }
+
+    @Test
+    public void download_withStalls_completesAtReducedRate() {
+        // 1 MB takes ~420 ms at 20 Mbps, then 200 ms of silence: ~13.5 Mbps overall
+        server.setDownloadMbps(20).setStall(1_000_000, 200);
+
+        SpeedTestManager.DownloadResult result = manager.testParallelDownloadSpeed(
+                server.getDownloadUrl(50_000_000), 1, PHASE_MS);
+
+        assertTrue(result.totalBytes > 0);
+        assertTrue("speed " + result.speedMbps, result.speedMbps < 20 * 0.85);
+        assertTrue("speed " + result.speedMbps, result.speedMbps > 20 * 0.5);
+    }
+
+    /**
+     * The first probes in a fresh JVM pay for class loading and compilation on both ends,
+     * tens of ms that no real link adds; a few untimed probes on the idle link get past it
+     */
+    private void warmUpProbePath() {
+        manager.testLatency(server.getBaseUrl(), 5, 10);
+    }
+
+    private static void assertWithin(double expectedMbps, double actualMbps, double tolerance) {
+        assertEquals("reported " + actualMbps + " Mbps", expectedMbps, actualMbps, expectedMbps * tolerance);
+    }
+}